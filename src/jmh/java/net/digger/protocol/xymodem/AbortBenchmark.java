@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.digger.protocol.xymodem.XYModem.ResyncOption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to abort a download when the sender turns to noise after the first
+ * data block, with a 1 second purge time limit.
+ * <p>
+ * Continuous noise never leaves a gap; trickled noise sends one byte just
+ * inside the gap which would mean the line is clear (990ms for PURGE,
+ * 240ms for SCAN), so each byte only just keeps the wait going.  Either
+ * way the error wait and the cancel wait each end at the limit, so the
+ * download should be over about 2 seconds after the noise starts (plus
+ * one trickle interval before the first noise byte arrives).
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class AbortBenchmark {
+	private static final int LIMIT = 1000;
+	// block 0, then block 1, before the noise
+	private static final int PREFIX = 133 + 1029;
+
+	@Param({"continuous", "trickle"})
+	public String noise;
+
+	@Param({"PURGE", "SCAN"})
+	public ResyncOption resync;
+
+	private NoisySender line;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		byte[] content = new byte[10 * 1024];
+		new Random(2).nextBytes(content);
+		SimulatedSender sender = new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content));
+		sender.setAllowStreaming(false);
+		int interval = 0;
+		if (noise.equals("trickle")) {
+			interval = (resync == ResyncOption.SCAN) ? 240 : 990;
+		}
+		line = new NoisySender(sender, PREFIX, interval);
+	}
+
+	@Benchmark
+	public List<String> abort() {
+		XYModem xymodem = new XYModem(line);
+		xymodem.setSinkFactory(DiscardSink.FACTORY);
+		xymodem.setResyncOption(resync);
+		xymodem.setPurgeLimits(LIMIT, Long.MAX_VALUE);
+		xymodem.download();
+		return line.getMessages();
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per file of a YModem batch of tiny files, which is mostly per-file
+ * overhead: block 0, handshake, EOT, and any wait for the line to clear.
+ * <p>
+ * The sender waits out the receiver's read timeouts, as a real line would,
+ * so a purge between files, or any wait for silence before NAKing the
+ * first EOT of each file, would show up in full.  The content is
+ * discarded, so storage is not included.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(BatchBenchmark.FILES)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+	static final int FILES = 100;
+
+	@Param({"100", "2000"})
+	public int fileSize;
+
+	@Param({"true", "false"})
+	public boolean streaming;
+
+	private SimulatedSender sender;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(fileSize);
+		List<String> names = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for (int i=0; i<FILES; i++) {
+			byte[] content = new byte[fileSize];
+			random.nextBytes(content);
+			names.add(String.format("log-%04d.txt", i));
+			contents.add(content);
+		}
+		sender = new SimulatedSender(names, contents);
+		sender.setAllowStreaming(streaming);
+		sender.setIdleWait(true);
+	}
+
+	@Benchmark
+	public int batch() {
+		sender.reset();
+		XYModem xymodem = new XYModem(sender);
+		xymodem.setSinkFactory(DiscardSink.FACTORY);
+		xymodem.download();
+		if (sender.getReceivedCount() != FILES) {
+			throw new IllegalStateException("Received " + sender.getReceivedCount() + " of " + FILES + " files.");
+		}
+		return sender.getReceivedCount();
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.digger.util.crc.CRC;
+
+/**
+ * Time to check one block with CRC16 and Checksum8, against crc-util
+ * (the library they replaced).
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+	@Param({"128", "1024"})
+	public int blockSize;
+
+	private byte[] packet;
+
+	@Setup
+	public void setup() {
+		packet = new byte[blockSize];
+		new Random(blockSize).nextBytes(packet);
+	}
+
+	@Benchmark
+	public int crc16() {
+		return CRC16.calculate(packet, 0, packet.length);
+	}
+
+	@Benchmark
+	public long crc16CrcUtil() {
+		return CRC.calculate(CRC.CRC16_CCITT_XModem, packet);
+	}
+
+	@Benchmark
+	public int checksum8() {
+		return Checksum8.calculate(packet, 0, packet.length);
+	}
+
+	@Benchmark
+	public long checksum8CrcUtil() {
+		return CRC.calculate(CRC.Checksum8, packet);
+	}
+}
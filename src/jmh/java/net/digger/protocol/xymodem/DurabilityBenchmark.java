@@ -0,0 +1,144 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.digger.protocol.xymodem.XYModem.DurabilityOption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Files per second received into the temp directory, by YModem batches of
+ * small files, for each DurabilityOption.
+ * <p>
+ * The files are split over one or several concurrent sessions.  FILE
+ * waits for one sync per file, and BATCH one per file at the end of each
+ * batch.  With several sessions, their FILE syncs overlap, and a journaling
+ * filesystem may commit them together.  What a sync costs depends on the storage device (and whether
+ * it has a volatile write cache), so the results only hold for the
+ * device the temp directory is on.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(DurabilityBenchmark.FILES)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DurabilityBenchmark {
+	static final int FILES = 128;
+	private static final int FILE_SIZE = 2000;
+
+	@Param({"NONE", "FILE", "BATCH"})
+	public DurabilityOption durability;
+
+	@Param({"1", "8"})
+	public int sessions;
+
+	private final Queue<Path> files = new ConcurrentLinkedQueue<>();
+	private List<SimulatedSender> senders;
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		int perSession = FILES / sessions;
+		senders = new ArrayList<>();
+		for (int s=0; s<sessions; s++) {
+			List<String> names = new ArrayList<>();
+			List<byte[]> contents = new ArrayList<>();
+			for (int i=0; i<perSession; i++) {
+				byte[] content = new byte[FILE_SIZE];
+				random.nextBytes(content);
+				names.add(String.format("log-%d-%04d.txt", s, i));
+				contents.add(content);
+			}
+			senders.add(new SimulatedSender(names, contents) {
+				@Override
+				public void received(Download download) {
+					super.received(download);
+					files.add(download.file);
+				}
+			});
+		}
+		executor = Executors.newFixedThreadPool(sessions);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteFiles() throws IOException {
+		Path file;
+		while ((file = files.poll()) != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public int batches() throws Exception {
+		List<Future<Integer>> results = new ArrayList<>();
+		for (SimulatedSender sender : senders) {
+			results.add(executor.submit(() -> receive(sender)));
+		}
+		int received = 0;
+		for (Future<Integer> result : results) {
+			received += result.get();
+		}
+		if (received != FILES) {
+			throw new IllegalStateException("Received " + received + " of " + FILES + " files.");
+		}
+		return received;
+	}
+
+	private int receive(SimulatedSender sender) {
+		sender.reset();
+		XYModem xymodem = new XYModem(sender);
+		xymodem.setDurabilityOption(durability);
+		xymodem.download();
+		return sender.getReceivedCount();
+	}
+}
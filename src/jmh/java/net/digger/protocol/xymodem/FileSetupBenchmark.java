@@ -0,0 +1,123 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to set up the local file for a download in the temp directory, up to
+ * having it open for writing, with 0 or 100 earlier copies of the name.
+ * <p>
+ * tempThenRename repeats what Download(String) used to do: create a temp file,
+ * step through the numbered names with exists() until one is free, create
+ * that, delete the temp file, then open the new file to write it.  claimNew
+ * is Download.openFile(), which claims the name in the CREATE_NEW open used
+ * to write it, and remembers the last number used for the name.  Each
+ * operation also deletes the file it created, at the same cost for both.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSetupBenchmark {
+	@Param({"0", "100"})
+	public int copies;
+
+	private Path dir;
+	private String base;
+	private String name;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Paths.get(System.getProperty("java.io.tmpdir"));
+		// a name of its own, so the cached numbering starts fresh for each trial
+		base = "setup-" + System.nanoTime();
+		name = base + ".bin";
+		for (int i=0; i<=copies; i++) {
+			Files.createFile(numbered(i));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>)files::iterator) {
+				if (file.getFileName().toString().startsWith(base)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public Path tempThenRename() throws IOException {
+		Path temp = Files.createTempFile(Download.TEMP_PREFIX, null);
+		Path newfile = temp.resolveSibling(name);
+		int i = 0;
+		while (Files.exists(newfile)) {
+			newfile = numbered(++i);
+		}
+		newfile = Files.createFile(newfile);
+		Files.delete(temp);
+		try (OutputStream out = Files.newOutputStream(newfile)) {
+			// opened to write, as the download did
+		}
+		Files.delete(newfile);
+		return newfile;
+	}
+
+	@Benchmark
+	public Path claimNew() throws Exception {
+		Download download = new Download(name, false);
+		try (FileChannel channel = download.openFile()) {
+			// opened to write
+		}
+		Files.delete(download.file);
+		return download.file;
+	}
+
+	private Path numbered(int number) {
+		if (number == 0) {
+			return dir.resolve(name);
+		}
+		return dir.resolve(base + '-' + number + ".bin");
+	}
+}
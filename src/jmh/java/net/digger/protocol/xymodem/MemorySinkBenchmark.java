@@ -0,0 +1,124 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per file of a YModem-G batch of small files, received into temp
+ * files (TempFileSinkFactory), or held in pooled heap or direct buffers
+ * (MemorySinkFactory).
+ * <p>
+ * Each file is disposed of as soon as it is received, as a consumer would:
+ * the temp file is deleted, and the memory buffer released to the pool.
+ * The files are all under the default 16 KByte threshold, so none spill.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(MemorySinkBenchmark.FILES)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemorySinkBenchmark {
+	static final int FILES = 100;
+
+	@Param({"1000", "8000"})
+	public int fileSize;
+
+	@Param({"temp", "heap", "direct"})
+	public String sink;
+
+	private SinkFactory factory;
+	private SimulatedSender sender;
+
+	@Setup
+	public void setup() {
+		MemorySinkFactory memory;
+		switch (sink) {
+			case "heap":
+				memory = new MemorySinkFactory();
+				break;
+			case "direct":
+				memory = new MemorySinkFactory(new TempFileSinkFactory(), MemorySinkFactory.DEFAULT_THRESHOLD,
+						MemorySinkFactory.DEFAULT_POOL_SIZE, true);
+				break;
+			default:
+				memory = null;
+				break;
+		}
+		factory = (memory != null) ? memory : new TempFileSinkFactory();
+		Random random = new Random(fileSize);
+		List<String> names = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for (int i=0; i<FILES; i++) {
+			byte[] content = new byte[fileSize];
+			random.nextBytes(content);
+			names.add(String.format("log-%04d.txt", i));
+			contents.add(content);
+		}
+		sender = new SimulatedSender(names, contents) {
+			@Override
+			public void received(Download download) {
+				super.received(download);
+				if (memory != null) {
+					memory.release(download);
+				} else {
+					try {
+						Files.delete(download.file);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			}
+		};
+		sender.setAllowStreaming(true);
+	}
+
+	@Benchmark
+	public int batch() {
+		sender.reset();
+		XYModem xymodem = new XYModem(sender);
+		xymodem.setSinkFactory(factory);
+		xymodem.download();
+		if (sender.getReceivedCount() != FILES) {
+			throw new IllegalStateException("Received " + sender.getReceivedCount() + " of " + FILES + " files.");
+		}
+		return sender.getReceivedCount();
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fragmentation of files received at the same time, with and without
+ * FileSink extending each file to its declared length first.
+ * <p>
+ * Several files are written 1 KByte at a time, in turn, as concurrent
+ * downloads would, and each is synced every few blocks, standing in for
+ * write-back while a slow download is still in progress.  The score is
+ * the time to write them all; extentsPerFile is the average number of
+ * extents per file, as reported by filefrag (Linux only, -1 if it can't
+ * be run).  The files are in the temp directory, so the result only holds
+ * for the filesystem it is on.
+ * <p>
+ * JMH adds up the counters over the measured iterations, so there is only one.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(1)
+public class PreallocationBenchmark {
+	private static final int BLOCK = 1024;
+	private static final Pattern EXTENTS = Pattern.compile(": (\\d+) extents? found");
+
+	@Param({"false", "true"})
+	public boolean preallocate;
+
+	@Param({"16"})
+	public int files;
+
+	@Param({"8"})
+	public int megabytes;
+
+	@Param({"64"})
+	public int syncEvery;
+
+	/**
+	 * Layout of the files written by the last run.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Layout {
+		public double extentsPerFile;
+	}
+
+	@Benchmark
+	public long write(Layout layout) throws Exception {
+		Path dir = Files.createTempDirectory("xymodem-prealloc");
+		long length = megabytes * (1L << 20);
+		Download[] downloads = new Download[files];
+		FileSink[] sinks = new FileSink[files];
+		try {
+			for (int i=0; i<files; i++) {
+				downloads[i] = new Download("file" + i + ".bin", false);
+				downloads[i].file = dir.resolve(downloads[i].name);
+				downloads[i].length = length;
+				sinks[i] = new FileSink(downloads[i], preallocate);
+			}
+			byte[] block = new byte[BLOCK];
+			new Random(1).nextBytes(block);
+			ByteBuffer data = ByteBuffer.wrap(block);
+			long blocks = length / BLOCK;
+			for (long b=0; b<blocks; b++) {
+				for (FileSink sink : sinks) {
+					data.clear();
+					sink.write(data);
+					if ((b % syncEvery) == (syncEvery - 1)) {
+						sink.sync();
+					}
+				}
+			}
+			long written = 0;
+			for (int i=0; i<files; i++) {
+				sinks[i].commit();
+				sinks[i].sync();
+				written += Files.size(downloads[i].file);
+			}
+			layout.extentsPerFile = extentsPerFile(downloads);
+			return written;
+		} finally {
+			for (Download download : downloads) {
+				if ((download != null) && (download.file != null)) {
+					Files.deleteIfExists(download.file);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	private static double extentsPerFile(Download[] downloads) {
+		long total = 0;
+		try {
+			for (Download download : downloads) {
+				Process filefrag = new ProcessBuilder("filefrag", download.file.toString()).redirectErrorStream(true).start();
+				String output;
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(filefrag.getInputStream(), StandardCharsets.UTF_8))) {
+					output = reader.readLine();
+				}
+				Matcher matcher = EXTENTS.matcher((output == null) ? "" : output);
+				if ((filefrag.waitFor() != 0) || !matcher.find()) {
+					return -1;
+				}
+				total += Long.parseLong(matcher.group(1));
+			}
+		} catch (IOException e) {
+			return -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+		return (double)total / downloads.length;
+	}
+}
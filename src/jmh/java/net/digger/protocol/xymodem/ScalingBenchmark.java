@@ -0,0 +1,191 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU time and memory per session of a ReceiveServer, with 1000 and 10000
+ * senders connected over loopback at once.
+ * <p>
+ * The senders run in a separate JVM (LoopbackSenders), so this JVM holds
+ * only the server.  They connect and stay silent while the heap is measured,
+ * so every session is held in its handshake; then each sends a 4 KByte file
+ * with YModem-G (or YModem-Batch, if its session has fallen back to 'C').
+ * The score is the time from starting the senders to the last session
+ * closing.  Per session, cpuNanos is the CPU time of the event loop threads
+ * (accept, handshake, transfer and close) and heapBytes is the heap held
+ * by an idle session: the heap in use while they are all held, less that
+ * in use once they have all closed.
+ * <p>
+ * JMH adds up these counters over the measured iterations, so there is
+ * only one.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(1)
+public class ScalingBenchmark {
+	private static final int FILE_SIZE = 4096;
+	private static final long TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+	@Param({"1000", "10000"})
+	public int sessions;
+
+	/**
+	 * Resources used per session, by the last run.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class PerSession {
+		public long cpuNanos;
+		public long heapBytes;
+	}
+
+	private ReceiveServer server;
+	private int port;
+	private long completed;
+
+	@Setup(Level.Iteration)
+	public void setup() throws IOException {
+		server = new ReceiveServer(Runtime.getRuntime().availableProcessors(), channel -> {
+			Receiver receiver = new Receiver(new DownloadListener() {
+				@Override
+				public void log(String message) {
+				}
+
+				@Override
+				public void progress(long bytes, long total) {
+				}
+
+				@Override
+				public void received(Download download) {
+				}
+			});
+			receiver.setSinkFactory(DiscardSink.FACTORY);
+			return receiver;
+		});
+		server.start();
+		port = ((InetSocketAddress)server.bind(new InetSocketAddress("127.0.0.1", 0))).getPort();
+		completed = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Benchmark
+	public long run(PerSession perSession) throws IOException, InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long cpuBefore = loopCpuTime();
+		long start = System.nanoTime();
+		try (SenderProcess senders = new SenderProcess(port, sessions, FILE_SIZE)) {
+			senders.awaitConnected();
+			while (openSessions() < sessions) {
+				waitFor(start);
+			}
+			long heapIdle = usedHeap(memory);
+
+			senders.answer();
+			int complete = senders.awaitFinished();
+			if (complete != sessions) {
+				throw new IllegalStateException(complete + " of " + sessions + " files were sent.");
+			}
+			completed += sessions;
+			while (completedSessions() < completed) {
+				waitFor(start);
+			}
+			perSession.cpuNanos = (loopCpuTime() - cpuBefore) / sessions;
+			perSession.heapBytes = (heapIdle - usedHeap(memory)) / sessions;
+			return completed;
+		}
+	}
+
+	private int openSessions() {
+		int count = 0;
+		for (ReceiveServer.LoopStats stats : server.getLoopStats()) {
+			count += stats.getSessions();
+		}
+		return count;
+	}
+
+	private long completedSessions() {
+		long count = 0;
+		for (ReceiveServer.LoopStats stats : server.getLoopStats()) {
+			count += stats.getCompleted();
+		}
+		return count;
+	}
+
+	private static void waitFor(long start) throws InterruptedException {
+		if ((System.nanoTime() - start) > TIMEOUT) {
+			throw new IllegalStateException("Timed out waiting for sessions.");
+		}
+		Thread.sleep(10);
+	}
+
+	private static long usedHeap(MemoryMXBean memory) {
+		System.gc();
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Total CPU time of the server's event loop threads.
+	 */
+	private static long loopCpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		List<Long> ids = new ArrayList<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("xymodem-loop-")) {
+				ids.add(thread.getId());
+			}
+		}
+		long total = 0;
+		for (long id : ids) {
+			total += Math.max(0, threads.getThreadCpuTime(id));
+		}
+		return total;
+	}
+}
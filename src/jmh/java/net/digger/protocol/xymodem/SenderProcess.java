@@ -0,0 +1,95 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+/**
+ * LoopbackSenders, run in a child JVM so that the benchmark's JVM holds
+ * only the receiving side.
+ * 
+ * @author agent
+ */
+class SenderProcess implements Closeable {
+	private final Process process;
+	private final BufferedReader out;
+
+	/**
+	 * Start the senders, which connect at once.
+	 * 
+	 * @param port Loopback port the receiver is listening on.
+	 * @param count Number of connections.
+	 * @param fileSize Size of the file sent over each connection.
+	 * @throws IOException If the JVM could not be started.
+	 */
+	public SenderProcess(int port, int count, int fileSize) throws IOException {
+		process = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-cp", System.getProperty("java.class.path"),
+				LoopbackSenders.class.getName(), Integer.toString(port), Integer.toString(count), Integer.toString(fileSize))
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+	}
+
+	/**
+	 * Wait until every connection has been made.
+	 * 
+	 * @throws IOException If the senders failed.
+	 */
+	public void awaitConnected() throws IOException {
+		String line = out.readLine();
+		if (!"connected".equals(line)) {
+			throw new IOException("Senders said '" + line + "', expected 'connected'.");
+		}
+	}
+
+	/**
+	 * Let the senders start answering the receivers.
+	 * 
+	 * @throws IOException If the senders failed.
+	 */
+	public void answer() throws IOException {
+		OutputStream in = process.getOutputStream();
+		in.write('\n');
+		in.flush();
+	}
+
+	/**
+	 * Wait until the receiver has closed every connection.
+	 * 
+	 * @return Number of senders whose file was completely sent.
+	 * @throws IOException If the senders failed.
+	 */
+	public int awaitFinished() throws IOException {
+		String line = out.readLine();
+		if ((line == null) || !line.startsWith("finished ")) {
+			throw new IOException("Senders said '" + line + "', expected 'finished'.");
+		}
+		return Integer.parseInt(line.substring("finished ".length()));
+	}
+
+	@Override
+	public void close() {
+		process.destroy();
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SessionRunner with a platform thread per download against a virtual
+ * thread per download, with 10000 senders connected over loopback at once.
+ * <p>
+ * As in ScalingBenchmark, the senders (in a child JVM) stay silent while
+ * every download is held in its handshake, blocked in a read, then each
+ * sends a 4 KByte file.  The score is the time from starting the senders
+ * to the last download ending.  Per session, heapBytes is the heap held by
+ * an idle download, rssBytes the resident memory it adds (which includes
+ * thread stacks; Linux only), and cpuNanos the CPU time of this JVM for
+ * the whole run, including GC.
+ * <p>
+ * Virtual threads need Java 21 or later; on older runtimes that case fails.
+ * JMH adds up the counters over the measured iterations, so there is only one.
+ * 
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(1)
+public class SessionRunnerBenchmark {
+	private static final int FILE_SIZE = 4096;
+	private static final long TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+	private static final DownloadListener LISTENER = new DownloadListener() {
+		@Override
+		public void log(String message) {
+		}
+
+		@Override
+		public void progress(long bytes, long total) {
+		}
+
+		@Override
+		public void received(Download download) {
+		}
+	};
+
+	@Param({"10000"})
+	public int sessions;
+
+	@Param({"platform", "virtual"})
+	public String threads;
+
+	/**
+	 * Resources used per session, by the last run.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class PerSession {
+		public long cpuNanos;
+		public long heapBytes;
+		public long rssBytes;
+	}
+
+	private ExecutorService executor;
+	private SessionRunner runner;
+	private ServerSocket server;
+	private Thread acceptor;
+
+	@Setup(Level.Iteration)
+	public void setup() throws IOException {
+		executor = threads.equals("virtual") ? virtualThreads() : platformThreads();
+		runner = new SessionRunner(executor);
+		server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+		acceptor = new Thread(() -> {
+			try {
+				while (true) {
+					Socket socket = server.accept();
+					runner.submit(socket, LISTENER, xymodem -> xymodem.setSinkFactory(DiscardSink.FACTORY));
+				}
+			} catch (IOException e) {
+				// server closed
+			}
+		}, "acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException, InterruptedException {
+		server.close();
+		acceptor.join();
+		executor.shutdownNow();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	@Benchmark
+	public int run(PerSession perSession) throws IOException, InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long cpuBefore = processCpuTime();
+		long rssBefore = residentBytes();
+		long start = System.nanoTime();
+		try (SenderProcess senders = new SenderProcess(server.getLocalPort(), sessions, FILE_SIZE)) {
+			senders.awaitConnected();
+			while (runner.getActiveSessions() < sessions) {
+				waitFor(start);
+			}
+			long heapIdle = usedHeap(memory);
+			perSession.rssBytes = (residentBytes() - rssBefore) / sessions;
+
+			senders.answer();
+			int complete = senders.awaitFinished();
+			if (complete != sessions) {
+				throw new IllegalStateException(complete + " of " + sessions + " files were sent.");
+			}
+			while (runner.getActiveSessions() > 0) {
+				waitFor(start);
+			}
+			perSession.cpuNanos = (processCpuTime() - cpuBefore) / sessions;
+			perSession.heapBytes = (heapIdle - usedHeap(memory)) / sessions;
+			return complete;
+		}
+	}
+
+	private static ExecutorService virtualThreads() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later.", e);
+		}
+	}
+
+	/**
+	 * A new platform thread per download, which ends with it.
+	 */
+	private static ExecutorService platformThreads() {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+			Thread thread = new Thread(task, "xymodem-session");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static void waitFor(long start) throws InterruptedException {
+		if ((System.nanoTime() - start) > TIMEOUT) {
+			throw new IllegalStateException("Timed out waiting for sessions.");
+		}
+		Thread.sleep(10);
+	}
+
+	private static long usedHeap(MemoryMXBean memory) {
+		System.gc();
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static long processCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+		}
+		return 0;
+	}
+
+	/**
+	 * Resident memory of this process, from /proc/self/status.
+	 * 
+	 * @return Bytes resident, or 0 if not known.
+	 */
+	private static long residentBytes() throws IOException {
+		Path status = Paths.get("/proc/self/status");
+		if (!Files.isReadable(status)) {
+			return 0;
+		}
+		for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+			if (line.startsWith("VmRSS:")) {
+				return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+/**
+ * CRC-16 as used by XModem-CRC, XModem-1K and YModem
+ * (CCITT polynomial 0x1021, initial value 0, not reflected).
+ * <p>
+ * Uses slicing-by-8 tables, so the inner loop handles 8 bytes per iteration
+ * with one table lookup per byte and no per-bit shifting.
+ * Can be updated incrementally, a range of bytes at a time.
+ * 
+ * @author agent
+ */
+final class CRC16 {
+	private static final int POLY = 0x1021;
+	/**
+	 * TABLE[k][b] is the CRC of byte b followed by k zero bytes.
+	 */
+	private static final int[][] TABLE = new int[8][256];
+	static {
+		for (int b=0; b<256; b++) {
+			int crc = b << 8;
+			for (int bit=0; bit<8; bit++) {
+				crc = ((crc & 0x8000) != 0) ? ((crc << 1) ^ POLY) : (crc << 1);
+			}
+			TABLE[0][b] = crc & 0xFFFF;
+		}
+		for (int k=1; k<8; k++) {
+			for (int b=0; b<256; b++) {
+				int prev = TABLE[k - 1][b];
+				TABLE[k][b] = ((prev << 8) ^ TABLE[0][prev >>> 8]) & 0xFFFF;
+			}
+		}
+	}
+
+	private CRC16() {
+	}
+
+	/**
+	 * Calculate the CRC of the given range of bytes.
+	 * 
+	 * @param buf Array holding the data.
+	 * @param off Offset of the first byte.
+	 * @param len Number of bytes.
+	 * @return CRC of the data (0-0xFFFF).
+	 */
+	static int calculate(byte[] buf, int off, int len) {
+		return update(0, buf, off, len);
+	}
+
+	/**
+	 * Continue calculating a CRC over the given range of bytes.
+	 * 
+	 * @param crc CRC of the data so far (0 to start).
+	 * @param buf Array holding the data.
+	 * @param off Offset of the first byte.
+	 * @param len Number of bytes.
+	 * @return CRC of the data so far, including the given range.
+	 */
+	static int update(int crc, byte[] buf, int off, int len) {
+		final int[] t0 = TABLE[0];
+		final int[] t1 = TABLE[1];
+		final int[] t2 = TABLE[2];
+		final int[] t3 = TABLE[3];
+		final int[] t4 = TABLE[4];
+		final int[] t5 = TABLE[5];
+		final int[] t6 = TABLE[6];
+		final int[] t7 = TABLE[7];
+		int end = off + len;
+		// the current CRC only overlaps the first two bytes of each slice
+		while (end - off >= 8) {
+			crc = t7[((crc >>> 8) ^ buf[off]) & 0xFF]
+				^ t6[(crc ^ buf[off + 1]) & 0xFF]
+				^ t5[buf[off + 2] & 0xFF]
+				^ t4[buf[off + 3] & 0xFF]
+				^ t3[buf[off + 4] & 0xFF]
+				^ t2[buf[off + 5] & 0xFF]
+				^ t1[buf[off + 6] & 0xFF]
+				^ t0[buf[off + 7] & 0xFF];
+			off += 8;
+		}
+		while (off < end) {
+			crc = ((crc << 8) ^ t0[((crc >>> 8) ^ buf[off]) & 0xFF]) & 0xFFFF;
+			off++;
+		}
+		return crc;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+/**
+ * Interfaces for publishing received file content with back-pressure.
+ * <p>
+ * These have the same methods and rules as java.util.concurrent.Flow (Reactive Streams),
+ * which is not available in Java 8.  On Java 9+, a Flow.Subscriber can be adapted with
+ * method references.
+ * 
+ * @author agent
+ */
+public final class ContentFlow {
+	private ContentFlow() {
+	}
+
+	/**
+	 * Producer of items, delivered to one Subscriber as it requests them.
+	 * 
+	 * @param <T> Type of item published.
+	 */
+	@FunctionalInterface
+	public static interface Publisher<T> {
+		/**
+		 * Add the Subscriber.  It will be passed a Subscription, then items as it requests them.
+		 * 
+		 * @param subscriber Subscriber to receive items.
+		 */
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * Receiver of items from a Publisher.
+	 * 
+	 * @param <T> Type of item received.
+	 */
+	public static interface Subscriber<T> {
+		/**
+		 * Called before any other method, with the Subscription used to request items.
+		 * 
+		 * @param subscription Subscription to the Publisher.
+		 */
+		public void onSubscribe(Subscription subscription);
+		/**
+		 * Called with each item, no more than requested.
+		 * 
+		 * @param item Next item.
+		 */
+		public void onNext(T item);
+		/**
+		 * Called if the Publisher fails.  No further methods are called.
+		 * 
+		 * @param throwable Reason for failure.
+		 */
+		public void onError(Throwable throwable);
+		/**
+		 * Called after the last item.  No further methods are called.
+		 */
+		public void onComplete();
+	}
+
+	/**
+	 * Link between a Publisher and its Subscriber.
+	 */
+	public static interface Subscription {
+		/**
+		 * Request up to n more items.
+		 * 
+		 * @param n Number of items (must be positive).
+		 */
+		public void request(long n);
+		/**
+		 * Stop receiving items.
+		 */
+		public void cancel();
+	}
+}
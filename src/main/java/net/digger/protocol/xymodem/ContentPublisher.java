@@ -0,0 +1,346 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.digger.protocol.xymodem.ContentFlow.Subscriber;
+import net.digger.protocol.xymodem.ContentFlow.Subscription;
+
+/**
+ * Publishes the verified content of one received file, as ByteBuffers, to a single Subscriber.
+ * <p>
+ * Content is queued until the Subscriber requests it.  Items are delivered on the thread
+ * which offers content or requests it, never concurrently.  The engines hold back the ACK
+ * for each block until the queue is drained, so a slow Subscriber slows the sender.
+ * In YModem-G, which can't be slowed, the queue is allowed to grow to STREAMING_LIMIT.
+ * <p>
+ * Content offered while the Subscriber has demand, and nothing is queued, is delivered
+ * at once as a read-only view of the caller's array, so it is not copied.  Only content
+ * which has to wait for demand is copied into the queue.  Either way, an item is only
+ * valid until onNext() returns, and a Subscriber which keeps one must copy it.
+ * 
+ * @author agent
+ */
+class ContentPublisher implements ContentFlow.Publisher<ByteBuffer> {
+	/**
+	 * Most bytes to queue for a Subscriber during a streaming download, before cancelling.
+	 */
+	static final int STREAMING_LIMIT = 1 << 20;
+	/**
+	 * Longest time to hold back an ACK waiting for the Subscriber, before cancelling.
+	 */
+	static final long DEMAND_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition drained = lock.newCondition();
+	private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+	private Subscriber<? super ByteBuffer> subscriber = null;
+	private boolean subscribed = false;	// onSubscribe() has returned
+	private long demand = 0;
+	private long queuedBytes = 0;
+	private boolean draining = false;
+	private boolean done = false;		// complete() or error() called
+	private Throwable error = null;
+	private boolean terminated = false;	// onComplete() or onError() delivered, or cancelled
+	private boolean cancelled = false;
+	private byte[] viewArray = null;	// array which view is a read-only view of
+	private ByteBuffer view = null;
+
+	@Override
+	public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+		boolean accepted;
+		lock.lock();
+		try {
+			accepted = (this.subscriber == null);
+			if (accepted) {
+				this.subscriber = subscriber;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (!accepted) {
+			// the content can only be delivered once
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Content can only be subscribed to once."));
+			return;
+		}
+		subscriber.onSubscribe(new Subscription() {
+			@Override
+			public void request(long n) {
+				ContentPublisher.this.request(n);
+			}
+
+			@Override
+			public void cancel() {
+				ContentPublisher.this.cancel();
+			}
+		});
+		lock.lock();
+		try {
+			subscribed = true;
+		} finally {
+			lock.unlock();
+		}
+		drain();
+	}
+
+	/**
+	 * Deliver some content at once if requested and nothing is queued, else queue a copy of it.
+	 * 
+	 * @param data Array holding the content.  May be reused once this returns.
+	 * @param off Offset of content in data.
+	 * @param len Length of content.
+	 */
+	public void offer(byte[] data, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (cancelled || done) {
+				return;
+			}
+			if (subscribed && !draining && !terminated && (demand > 0) && queue.isEmpty()) {
+				// the Subscriber is waiting for it, so deliver it without a copy
+				if (data != viewArray) {
+					view = ByteBuffer.wrap(data).asReadOnlyBuffer();
+					viewArray = data;
+				}
+				view.clear();
+				view.position(off);
+				view.limit(off + len);
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+				draining = true;
+				lock.unlock();
+				try {
+					subscriber.onNext(view);
+				} finally {
+					lock.lock();
+					draining = false;
+				}
+			} else {
+				ByteBuffer item = ByteBuffer.allocate(len);
+				item.put(data, off, len);
+				item.flip();
+				queue.add(item);
+				queuedBytes += len;
+			}
+		} finally {
+			lock.unlock();
+		}
+		// deliver anything the Subscriber did (or was offered) meanwhile
+		drain();
+	}
+
+	/**
+	 * Signal the end of the content, once the queue is drained.
+	 */
+	public void complete() {
+		finish(null);
+	}
+
+	/**
+	 * Signal failure, once the queue is drained.
+	 * 
+	 * @param throwable Reason for failure.
+	 */
+	public void error(Throwable throwable) {
+		finish(throwable);
+	}
+
+	/**
+	 * Indicates whether all queued content has been delivered (or the Subscriber has cancelled).
+	 * 
+	 * @return True if nothing is waiting for demand.
+	 */
+	public boolean isDrained() {
+		lock.lock();
+		try {
+			return cancelled || queue.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for all queued content to be delivered (or the Subscriber to cancel).
+	 * 
+	 * @param nanos Longest time to wait.
+	 * @return True if drained, false if timed out or interrupted.
+	 */
+	public boolean awaitDrained(long nanos) {
+		lock.lock();
+		try {
+			while (!cancelled && !queue.isEmpty()) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = drained.awaitNanos(nanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Number of bytes waiting for demand.
+	 */
+	public long getQueuedBytes() {
+		lock.lock();
+		try {
+			return queuedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return True if the Subscriber has cancelled its Subscription.
+	 */
+	public boolean isCancelled() {
+		lock.lock();
+		try {
+			return cancelled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void request(long n) {
+		lock.lock();
+		try {
+			if (terminated) {
+				return;
+			}
+			if (n <= 0) {
+				// Reactive Streams rule 3.9; also stops the download
+				cancelled = true;
+				done = true;
+				error = new IllegalArgumentException("Subscription.request() requires a positive number of items.");
+				queue.clear();
+				queuedBytes = 0;
+				drained.signalAll();
+			} else {
+				demand += n;
+				if (demand < 0) {
+					// effectively unbounded
+					demand = Long.MAX_VALUE;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		drain();
+	}
+
+	private void cancel() {
+		lock.lock();
+		try {
+			cancelled = true;
+			terminated = true;
+			queue.clear();
+			queuedBytes = 0;
+			drained.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void finish(Throwable throwable) {
+		lock.lock();
+		try {
+			if (done) {
+				return;
+			}
+			done = true;
+			error = throwable;
+		} finally {
+			lock.unlock();
+		}
+		drain();
+	}
+
+	/**
+	 * Deliver queued content while there is demand, then the end of the content if due.
+	 * Only one thread delivers at a time; others (including re-entrant calls from the
+	 * Subscriber) leave the work to it.
+	 */
+	private void drain() {
+		lock.lock();
+		try {
+			if (draining || !subscribed) {
+				return;
+			}
+			draining = true;
+			while (!terminated) {
+				if ((demand > 0) && !queue.isEmpty()) {
+					ByteBuffer item = queue.poll();
+					queuedBytes -= item.remaining();
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+					if (queue.isEmpty()) {
+						drained.signalAll();
+					}
+					lock.unlock();
+					try {
+						subscriber.onNext(item);
+					} finally {
+						lock.lock();
+					}
+				} else if (done && (queue.isEmpty() || (error != null))) {
+					terminated = true;
+					Throwable throwable = error;
+					lock.unlock();
+					try {
+						if (throwable != null) {
+							subscriber.onError(throwable);
+						} else {
+							subscriber.onComplete();
+						}
+					} finally {
+						lock.lock();
+					}
+				} else {
+					break;
+				}
+			}
+		} finally {
+			draining = false;
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SinkFactory which writes each file straight into a destination directory.
+ * <p>
+ * While it is being received, a file is written under a hidden staging name
+ * (.xymodem-*.part) in the destination directory.  When the file is complete, it is
+ * published under the name given by the sender (numbered if that already exists) by
+ * creating a hard link to the staging file, which is then deleted.  Creating the link
+ * fails if the name exists, so it claims the name and publishes the whole content in
+ * one step: completing a file is a link on the same filesystem, rather than a copy,
+ * and no partial or empty file ever appears under the final name.  If the download
+ * fails, the staging file is deleted.
+ * <p>
+ * Where the filesystem doesn't support hard links (e.g. FAT), the final name is
+ * instead claimed by creating an empty file, and the staging file is then renamed
+ * over it.  In that case an empty file is briefly visible under the final name.  A
+ * rename within one directory is atomic on any filesystem likely to be used; if it
+ * can't be, the file fails rather than being copied over the visible name.  Links
+ * are only given up on for a directory whose filesystem rejects them outright
+ * (EPERM, EXDEV or unsupported); any other error linking a file fails that file.
+ * 
+ * @author agent
+ */
+public class DirectorySinkFactory implements SinkFactory {
+	private static final String STAGING_PREFIX = ".xymodem-";
+	private static final String STAGING_SUFFIX = ".part";
+	/**
+	 * Reasons given for a hard link the filesystem can't make at all, rather than one
+	 * that failed this time (EPERM, as reported by FAT; EXDEV; EOPNOTSUPP).
+	 */
+	private static final List<String> LINK_UNSUPPORTED = Arrays.asList(
+			"Operation not permitted", "Invalid cross-device link", "Operation not supported");
+
+	private final Path directory;
+	private final boolean preallocate;
+	private volatile boolean linkSupported = true;
+
+	/**
+	 * Create new instance of DirectorySinkFactory.
+	 * 
+	 * @param directory Destination directory, created if it doesn't exist.
+	 * @throws IOException If error creating the directory.
+	 */
+	public DirectorySinkFactory(Path directory) throws IOException {
+		this(directory, false);
+	}
+
+	/**
+	 * Create new instance of DirectorySinkFactory.
+	 * 
+	 * @param directory Destination directory, created if it doesn't exist.
+	 * @param preallocate True to extend each file to its declared length before writing (see FileSink).
+	 * @throws IOException If error creating the directory.
+	 */
+	public DirectorySinkFactory(Path directory, boolean preallocate) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.preallocate = preallocate;
+	}
+
+	/**
+	 * @return Destination directory.
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public DownloadSink open(Download download) throws IOException {
+		Path staging = Files.createTempFile(directory, STAGING_PREFIX, STAGING_SUFFIX);
+		download.file = staging;
+		try {
+			return new StagedFileSink(download);
+		} catch (IOException e) {
+			Files.deleteIfExists(staging);
+			download.file = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Publish a completed staging file under its final name.
+	 * 
+	 * @param download Completed file.
+	 * @param staging Staging file holding its content.
+	 * @return Final path of the file.
+	 * @throws IOException If error publishing the file.
+	 */
+	private Path publish(Download download, Path staging) throws IOException {
+		if (linkSupported) {
+			try {
+				Path target = claimName(download, staging, path -> link(path, staging));
+				try {
+					Files.delete(staging);
+				} catch (IOException e) {
+					// the file is already published, so just leave the staging name behind
+				}
+				return target;
+			} catch (UnsupportedOperationException e) {
+				XYModem.debug("\nHard links not supported in %s: %s\n", directory, e);
+			} catch (FileSystemException e) {
+				// only an error which will recur for every file means there are no links here
+				if (!LINK_UNSUPPORTED.contains(e.getReason())) {
+					throw e;
+				}
+				XYModem.debug("\nHard links not supported in %s: %s\n", directory, e);
+			}
+		}
+		// claiming the name first means the rename can't replace another file
+		Path target = claimName(download, staging, Files::createFile);
+		try {
+			// the name is already visible, so only a rename which can't leave it partial will do
+			Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(target);
+			throw e;
+		}
+		// the rename worked where the link didn't, so don't try links here again
+		linkSupported = false;
+		return target;
+	}
+
+	/**
+	 * Create the hard link which publishes a file.
+	 * 
+	 * @param target Final name, which must not exist.
+	 * @param staging Staging file holding its content.
+	 * @return The link created.
+	 * @throws IOException If error creating the link.
+	 */
+	Path link(Path target, Path staging) throws IOException {
+		return Files.createLink(target, staging);
+	}
+
+	/**
+	 * Claim the final name for a completed file: the name from the sender, or one
+	 * made from the staging name if there is none.
+	 * 
+	 * @param download Completed file.
+	 * @param staging Staging file holding its content.
+	 * @param creator Creates the file under the final name, failing if it exists.
+	 * @return Path of the file created.
+	 * @throws IOException If error creating the file.
+	 */
+	private Path claimName(Download download, Path staging, NameAllocator.Opener<Path> creator) throws IOException {
+		NameAllocator allocator = NameAllocator.forDirectory(directory);
+		String filename = download.getLocalName();
+		if (filename != null) {
+			try {
+				return allocator.claim(filename, creator);
+			} catch (InvalidPathException e) {
+				// fall back to a generated name
+			}
+		}
+		// the staging name is already unique in the directory
+		String unique = staging.getFileName().toString();
+		unique = unique.substring(STAGING_PREFIX.length(), unique.length() - STAGING_SUFFIX.length());
+		return allocator.claim(Download.TEMP_PREFIX + unique + ".tmp", creator);
+	}
+
+	/**
+	 * FileSink which publishes its staging file under the final name on commit.
+	 */
+	private final class StagedFileSink extends FileSink {
+		private final Download download;
+
+		public StagedFileSink(Download download) throws IOException {
+			super(download, preallocate);
+			this.download = download;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			super.commit();
+			download.file = publish(download, download.file);
+		}
+	}
+}
@@ -17,10 +17,13 @@
 package net.digger.protocol.xymodem;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
 import java.util.concurrent.TimeUnit;
 
@@ -30,10 +33,22 @@ import java.util.concurrent.TimeUnit;
  * @author walton
  */
 public class Download {
+	/**
+	 * Prefix of local files created without the name from the sender.
+	 */
+	static final String TEMP_PREFIX = "gecpdownload-";
 	/**
 	 * Path to local copy of successfully downloaded file.
+	 * Null if the file's content was published instead (see XYModem.setContentConsumer()),
+	 * or held in memory (see content).
 	 */
 	public Path file;
+	/**
+	 * Content of the downloaded file, if it was held in memory by a MemorySinkFactory
+	 * instead of being written to a local file, from position 0 to the limit.
+	 * Null if the content is in file, or was published.
+	 */
+	public ByteBuffer content = null;
 	/**
 	 * Name of downloaded file from sender, if available.
 	 * Null if not sent.
@@ -80,15 +95,81 @@ public class Download {
 	 * @throws AbortDownloadException If error creating local file.
 	 */
 	public Download(String name) throws AbortDownloadException {
+		this(name, true);
+	}
+
+	/**
+	 * Create a new Download, optionally without a local file.
+	 * 
+	 * @param name Name of file to download (null if not sent).
+	 * @param createFile If false, file is left null, for the SinkFactory to set (if it stores the content in a file).
+	 * @throws AbortDownloadException If error creating local file.
+	 */
+	Download(String name, boolean createFile) throws AbortDownloadException {
+		this.name = name;
+		if (!createFile) {
+			return;
+		}
 		try {
-			// create a temp file
-			file = Files.createTempFile("gecpdownload-", null);
-			// if no file name was given, we are done
-			if (name == null) {
-				return;
+			createFile();
+		} catch (IOException e) {
+			/*
+			 * Chapter 5.  YMODEM Batch File Transmission
+			 * If the file cannot be
+			 * opened for writing, the receiver cancels the transfer with CAN characters
+			 * as described above.
+			 */
+			throw new AbortDownloadException("Error creating file.", e);
+		}
+	}
+
+	/**
+	 * Create the local file in the temp directory, using the file name from
+	 * the sender if there is one, and it doesn't clash with an existing file.
+	 * 
+	 * @throws IOException If error creating the file.
+	 */
+	void createFile() throws IOException {
+		openFile().close();
+	}
+
+	/**
+	 * Create and open the local file in the temp directory, using the file name
+	 * from the sender if there is one, and it doesn't clash with an existing file.
+	 * <p>
+	 * The file is claimed by the same open (CREATE_NEW) which is used to write it.
+	 * 
+	 * @return Channel open for writing to the new file.
+	 * @throws IOException If error creating the file.
+	 */
+	FileChannel openFile() throws IOException {
+		String filename = getLocalName();
+		if (filename != null) {
+			try {
+				Path dir = Paths.get(System.getProperty("java.io.tmpdir"));
+				return NameAllocator.forDirectory(dir).claim(filename, path -> {
+					FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+					file = path;
+					return channel;
+				});
+			} catch (InvalidPathException e) {
+				// if can't create a named path, just fall back to using a temp file
 			}
-			// store the file name as given, before processing for use
-			this.name = name;
+		}
+		file = Files.createTempFile(TEMP_PREFIX, null);
+		return FileChannel.open(file, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Get the file name from the sender, without any directories, for use as a local file name.
+	 * 
+	 * @return Local file name, or null if no name was sent, or it can't be used as a file name.
+	 */
+	String getLocalName() {
+		if (name == null) {
+			return null;
+		}
+		try {
 			/*
 			 * Chapter 5.  YMODEM Batch File Transmission
 			 * If directories are included, they are delimited by /; i.e.,
@@ -97,47 +178,9 @@ public class Download {
 			// in case the given file name is a full path, use just the name portion of it
 			int pos = name.lastIndexOf('/');
 			Path filepath = Paths.get(name.substring(pos + 1)).getFileName();
-			String filename = filepath.toString();
-			// create a path using the temp file directory and the given file name
-			Path newfile = file.resolveSibling(filename);
-			// if the created path already exists, look for one which does not exist
-			if (Files.exists(newfile)) {
-				int i = 0;
-				String fileext = null;
-				pos = filename.lastIndexOf('.');
-				// if filename has extension (ignoring . at start of name), break apart name and ext
-				if (pos > 0) {
-					fileext = filename.substring(pos + 1);
-					filename = filename.substring(0, pos);
-				}
-				// append incrementing number to filename until a name is found which does not exist
-				do {
-					i++;
-					if (fileext != null) {
-						// if there is a file extension, use filename-#.ext
-						newfile = file.resolveSibling(filename + '-' + i + '.' + fileext);
-					} else {
-						// if there is no file extension, use filename-#
-						newfile = file.resolveSibling(filename + '-' + i);
-					}
-				} while (Files.exists(newfile));
-			}
-			// create a new file
-			newfile = Files.createFile(newfile);
-			// delete the original temp file
-			Files.delete(file);
-			file = newfile;
+			return (filepath == null) ? null : filepath.toString();
 		} catch (InvalidPathException e) {
-			// if can't create a named path, just fall back to using the temp file
-			return;
-		} catch (IOException e) {
-			/*
-			 * Chapter 5.  YMODEM Batch File Transmission
-			 * If the file cannot be
-			 * opened for writing, the receiver cancels the transfer with CAN characters
-			 * as described above.
-			 */
-			throw new AbortDownloadException("Error creating file.", e);
+			return null;
 		}
 	}
 
@@ -157,7 +200,7 @@ public class Download {
 	 * the sender, if available.
 	 */
 	public void resetLastModified() {
-		if (modified != null) {
+		if ((modified != null) && (file != null)) {
 			try {
 				Files.setLastModifiedTime(file, modified);
 			} catch (IOException e) {
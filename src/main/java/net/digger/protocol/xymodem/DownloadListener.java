@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2017  David Walton
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+/**
+ * Interface for handling the events of a download which are not I/O:
+ * logging, progress and received files.
+ * <p>
+ * Extended by IOHandler for the blocking XYModem engine, and used directly by
+ * the push Receiver engine, which does no I/O of its own.
+ * 
+ * @author walton
+ * @author agent
+ */
+public interface DownloadListener {
+	/**
+	 * Called during download with logging messages.
+	 * 
+	 * @param message Message to log.
+	 */
+	public void log(String message);
+	/**
+	 * Called during download with progress data.
+	 * 
+	 * @param bytes Number of bytes downloaded so far.
+	 * @param total Total size of file being downloaded (0 if unknown).
+	 */
+	public void progress(long bytes, long total);
+	/**
+	 * Called when the download of a file begins, once the local file has been opened.
+	 * <p>
+	 * The default implementation does nothing.
+	 * 
+	 * @param download Download object with details of file being downloaded.
+	 */
+	public default void started(Download download) {
+	}
+	/**
+	 * Called at end of successful download with details of downloaded file.
+	 * 
+	 * @param download Download object with details of downloaded file, including a reference to it.
+	 */
+	public void received(Download download);
+}
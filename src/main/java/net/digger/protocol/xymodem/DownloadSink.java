@@ -0,0 +1,72 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for the content of one downloaded file.
+ * <p>
+ * Opened by a SinkFactory as the file begins.  Verified content is passed to
+ * write() in order, and the sink is then either committed (after any truncation
+ * called for by the OverrunOption) or aborted.  A committed sink may then be
+ * synced, as the DurabilityOption calls for.  All calls for one file are made
+ * from the download's thread.
+ * 
+ * @author agent
+ */
+public interface DownloadSink {
+	/**
+	 * Store the next piece of content.
+	 * <p>
+	 * All remaining bytes of data must be consumed.  The buffer is only valid
+	 * during the call; a sink which keeps the content must copy it.
+	 * 
+	 * @param data Content to store.
+	 * @throws IOException If error storing the content.
+	 */
+	public void write(ByteBuffer data) throws IOException;
+	/**
+	 * Discard any content stored past the given length.
+	 * 
+	 * @param length Length to keep.
+	 * @throws IOException If error truncating the content.
+	 */
+	public void truncate(long length) throws IOException;
+	/**
+	 * Complete the file.  No further calls are made, except sync().
+	 * 
+	 * @throws IOException If error completing the file.
+	 */
+	public void commit() throws IOException;
+	/**
+	 * Make the committed file durable, so it survives a crash or power loss.
+	 * Called after commit(), if the DurabilityOption calls for it.
+	 * <p>
+	 * The default does nothing, for sinks which aren't stored locally.
+	 * 
+	 * @throws IOException If error syncing the file.
+	 */
+	public default void sync() throws IOException {
+	}
+	/**
+	 * Discard the incomplete file, after the download failed or was cancelled.
+	 * No further calls are made.  Errors should be ignored.
+	 */
+	public void abort();
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DownloadSink which writes to the local file given by Download.file, through one FileChannel.
+ * <p>
+ * Blocks are written in order, and on commit the file's modification time is set to the
+ * one given by the sender.
+ * On abort, the file is deleted.  sync() forces the file, and the directory holding it,
+ * to the storage device.
+ * <p>
+ * Optionally, a file whose length was declared by the sender (YModem) is first extended
+ * to that length.  No blocks are reserved, so the file is sparse until written, but a
+ * filesystem can use the size to place the file: on ext4, a file which is already large
+ * gets space set aside for it alone, rather than sharing a pool with other small, growing
+ * files, so files received at the same time are not interleaved on disk.  Other
+ * filesystems may not benefit.  If the file comes up short, it is trimmed on commit.
+ * 
+ * @author agent
+ */
+public class FileSink implements DownloadSink {
+	/**
+	 * Largest declared length to extend a file to, so a bogus length is ignored.
+	 */
+	public static final long MAX_PREALLOCATION = 1L << 30;
+
+	private final Download download;
+	private final FileChannel channel;
+	private long position = 0;		// end of content written
+
+	/**
+	 * Open download.file for writing, replacing any content.
+	 * 
+	 * @param download Download whose file is to be written.
+	 * @throws IOException If error opening the file.
+	 */
+	public FileSink(Download download) throws IOException {
+		this(download, false);
+	}
+
+	/**
+	 * Open download.file for writing, replacing any content.
+	 * 
+	 * @param download Download whose file is to be written.
+	 * @param preallocate True to extend the file to its declared length before writing.
+	 * @throws IOException If error opening or extending the file.
+	 */
+	public FileSink(Download download, boolean preallocate) throws IOException {
+		this(download, FileChannel.open(download.file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), preallocate);
+	}
+
+	/**
+	 * Write to download.file through a channel already open for writing to the empty file.
+	 * 
+	 * @param download Download whose file is to be written.
+	 * @param channel Channel open for writing to download.file.  Closed if an error is thrown.
+	 * @param preallocate True to extend the file to its declared length before writing.
+	 * @throws IOException If error extending the file.
+	 */
+	FileSink(Download download, FileChannel channel, boolean preallocate) throws IOException {
+		this.download = download;
+		this.channel = channel;
+		if (preallocate && (download.length > 0) && (download.length <= MAX_PREALLOCATION)) {
+			try {
+				// writing the last byte sets the size, without writing (or reserving) the rest
+				channel.write(ByteBuffer.wrap(new byte[1]), download.length - 1);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+
+	@Override
+	public void truncate(long length) throws IOException {
+		channel.truncate(length);
+		if (position > length) {
+			position = length;
+		}
+	}
+
+	@Override
+	public void commit() throws IOException {
+		// drop the rest of the declared length, if the file came up short
+		if (channel.size() > position) {
+			channel.truncate(position);
+		}
+		channel.close();
+		// no way to set it through the channel, and closing must not disturb it, so set it last
+		download.resetLastModified();
+	}
+
+	@Override
+	public void sync() throws IOException {
+		// the channel is closed by commit(), and a sync on any descriptor covers the file
+		try (FileChannel file = FileChannel.open(download.file, StandardOpenOption.WRITE)) {
+			file.force(true);
+		}
+		// a new file's directory entry is only durable once the directory is synced
+		Path dir = download.file.toAbsolutePath().getParent();
+		if (dir != null) {
+			try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+				channel.force(true);
+			} catch (IOException e) {
+				// not supported on all platforms (e.g. Windows), where the file sync suffices
+			}
+		}
+	}
+
+	@Override
+	public void abort() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// just ignore the error
+		}
+		try {
+			Files.delete(download.file);
+		} catch (IOException e) {
+			// just ignore the error
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.digger.protocol.xymodem.XYModem.DurabilityOption;
+
+/**
+ * Applies the DurabilityOption to the files of one download session.
+ * Shared by the blocking (XYModem) and push (Receiver) engines.
+ * <p>
+ * Every sync blocks the calling thread until the storage device is done.  When a
+ * Receiver is run by ReceiveServer, that is the event loop thread, and every session
+ * on the loop waits with it: once per file for FILE, and once per batch for BATCH.
+ * 
+ * @author agent
+ */
+class FileSyncer {
+	private final DurabilityOption option;
+	private final List<DownloadSink> pending = new ArrayList<>();
+
+	/**
+	 * Create a new FileSyncer.
+	 * 
+	 * @param option How files are to be made durable.
+	 */
+	public FileSyncer(DurabilityOption option) {
+		this.option = option;
+	}
+
+	/**
+	 * Called when a file has been committed, before it is passed to the listener.
+	 * Syncs it now if FILE, or holds it for endBatch() if BATCH.
+	 * 
+	 * @param sink Committed sink.
+	 * @throws IOException If error syncing the file.
+	 */
+	public void committed(DownloadSink sink) throws IOException {
+		switch (option) {
+			case FILE:
+				sink.sync();
+				break;
+			case BATCH:
+				pending.add(sink);
+				break;
+			case NONE:
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Called at the end of a batch, before its final ACK.  Syncs the files held since the last batch.
+	 * 
+	 * @throws IOException If error syncing a file.
+	 */
+	public void endBatch() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		XYModem.debug("\nSyncing %d files.\n", pending.size());
+		try {
+			for (DownloadSink sink : pending) {
+				sink.sync();
+			}
+		} finally {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Called when the session ends, however it ended.  Syncs any files still held,
+	 * as they have already been passed to the listener.  Errors are ignored.
+	 */
+	public void close() {
+		try {
+			endBatch();
+		} catch (IOException e) {
+			// just ignore the error
+		}
+	}
+}
@@ -17,11 +17,11 @@
 package net.digger.protocol.xymodem;
 
 /**
- * Interface for handling various events during a download.
+ * Interface for handling I/O and various events during a download.
  * 
  * @author walton
  */
-public interface IOHandler {
+public interface IOHandler extends DownloadListener {
 	/**
 	 * Called during download to read the next input byte.
 	 * <p>
@@ -35,28 +35,85 @@ public interface IOHandler {
 	 */
 	public Byte read(int msTimeout) throws UserCancelException;
 	/**
-	 * Called during download to send a byte to the sender.
+	 * Called during download to read the next input byte, without boxing it.
+	 * <p>
+	 * Blocks until the next byte is available.
+	 * If timeout is reached, return -1.
+	 * If user cancels the download while blocked, throw DownloadCancelException.
+	 * <p>
+	 * The default implementation calls read(msTimeout).
+	 * Implementations should override this to avoid allocating a Byte
+	 * for values outside the Byte cache.
 	 * 
-	 * @param ch Byte to transmit.
+	 * @param msTimeout Milliseconds to wait before timing out.
+	 * @return Next data byte (0-255), or -1 if timed out.
+	 * @throws UserCancelException If user cancelled the download.
 	 */
-	public void write(char ch);
+	public default int readByte(int msTimeout) throws UserCancelException {
+		Byte b = read(msTimeout);
+		return (b == null) ? -1 : (b & 0xFF);
+	}
 	/**
-	 * Called during download with logging messages.
-	 * 
-	 * @param message Message to log.
+	 * Called during download to read up to len input bytes into dst.
+	 * <p>
+	 * Blocks until at least one byte is available, then returns as many
+	 * bytes as are immediately available, up to len.
+	 * If timeout is reached before any byte is available, return 0.
+	 * If user cancels the download while blocked, throw DownloadCancelException.
+	 * <p>
+	 * The default implementation reads a single byte using readByte(msTimeout).
+	 * Implementations backed by a stream or channel should override this to
+	 * read whole blocks at once.
+	 *
+	 * @param dst Array to store the read bytes in.
+	 * @param off Offset in dst of the first byte to store.
+	 * @param len Maximum number of bytes to read.
+	 * @param msTimeout Milliseconds to wait before timing out.
+	 * @return Number of bytes read, or 0 if timed out.
+	 * @throws UserCancelException If user cancelled the download.
 	 */
-	public void log(String message);
+	public default int read(byte[] dst, int off, int len, int msTimeout) throws UserCancelException {
+		if (len <= 0) {
+			return 0;
+		}
+		int b = readByte(msTimeout);
+		if (b < 0) {
+			return 0;
+		}
+		dst[off] = (byte)b;
+		return 1;
+	}
 	/**
-	 * Called during download with progress data.
+	 * Called during download to send a byte to the sender.
 	 * 
-	 * @param bytes Number of bytes downloaded so far.
-	 * @param total Total size of file being downloaded (0 if unknown).
+	 * @param ch Byte to transmit.
 	 */
-	public void progress(long bytes, long total);
+	public void write(char ch);
 	/**
-	 * Called at end of successful download with details of downloaded file.
+	 * Called during download to send several bytes to the sender.
+	 * <p>
+	 * The engine collects each response (ACK plus handshake, cancel sequence, etc.)
+	 * and sends it with a single call, followed by flush().
+	 * <p>
+	 * The default implementation calls write(ch) for each byte.
+	 * Implementations backed by a stream or channel should override this to
+	 * send the bytes together.
 	 * 
-	 * @param download Download object with details of downloaded file, including a reference to it.
+	 * @param buf Array holding the bytes to transmit.
+	 * @param off Offset in buf of the first byte.
+	 * @param len Number of bytes to transmit.
+	 */
+	public default void write(byte[] buf, int off, int len) {
+		for (int i=off; i<off+len; i++) {
+			write((char)(buf[i] & 0xFF));
+		}
+	}
+	/**
+	 * Called during download after each complete response has been written,
+	 * to push any buffered output to the sender.
+	 * <p>
+	 * The default implementation does nothing.
 	 */
-	public void received(Download download);
+	public default void flush() {
+	}
 }
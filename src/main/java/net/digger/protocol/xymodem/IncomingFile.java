@@ -0,0 +1,394 @@
+/**
+ * Copyright © 2017-2019  David Walton
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.function.BiConsumer;
+
+import net.digger.protocol.xymodem.XYModem.OverrunOption;
+import net.digger.protocol.xymodem.XYModem.PaddingOption;
+
+/**
+ * A file being received, shared by the blocking (XYModem) and push (Receiver) engines.
+ * <p>
+ * Writes verified packets to a DownloadSink, applying the OverrunOption when the
+ * sender declared the file length, and commits or aborts the sink at the end.
+ * <p>
+ * If a content consumer is given, the packets are published to it instead.  As
+ * published content can't be truncated afterwards, the packet which reaches the
+ * declared length is held back until it is known whether the file ends there.
+ * <p>
+ * If no length was declared and the PaddingOption calls for trimming the padding,
+ * each packet is held back until the next one arrives, so the last packet can be
+ * trimmed before it is written.
+ * 
+ * @author walton
+ * @author agent
+ */
+class IncomingFile {
+	/**
+	 * Details of the file being received.
+	 */
+	public final Download download;
+	private final OverrunOption overrunOption;
+	private final PaddingOption paddingOption;
+	private final DownloadListener listener;
+	private final long start;
+	private final DownloadSink sink;
+	private final FileSyncer syncer;
+	private final ContentPublisher publisher;
+	private long count = 0;
+	private boolean possibleLastPacket = false;
+	private byte[] held = null;			// packet held back
+	private int heldSize = 0;
+	private boolean holding = false;
+	private ByteBuffer wrapper = null;	// reused view of the packet passed to the sink
+
+	/**
+	 * Open the sink for the file's content.
+	 * 
+	 * @param download Details of the file to receive.
+	 * @param overrunOption Behavior for data past the declared file length.
+	 * @param paddingOption Behavior for padding of the last packet, if no file length was declared.
+	 * @param listener Listener for log, progress and received events.
+	 * @param start Time the download of this file started (System.nanoTime(), or the caller's clock).
+	 * @param sinkFactory Opens the sink for the file's content.
+	 * @param syncer Applies the DurabilityOption once the sink is committed.
+	 * @param contentConsumer Given the file's content publisher, instead of using a sink (null to use a sink).
+	 * @throws AbortDownloadException If the sink could not be opened.
+	 */
+	public IncomingFile(Download download, OverrunOption overrunOption, PaddingOption paddingOption,
+			DownloadListener listener, long start, SinkFactory sinkFactory, FileSyncer syncer,
+			BiConsumer<Download, ContentFlow.Publisher<ByteBuffer>> contentConsumer) throws AbortDownloadException {
+		this.download = download;
+		this.overrunOption = overrunOption;
+		this.paddingOption = paddingOption;
+		this.listener = listener;
+		this.start = start;
+		this.syncer = syncer;
+		if (download.name != null) {
+			String message = "Downloading " + download.name;
+			if (download.length > 0) {
+				message += " (" + XYModem.formatBytes(download.length) + ")";
+			}
+			log(message);
+		}
+		if (contentConsumer == null) {
+			try {
+				sink = sinkFactory.open(download);
+			} catch (IOException e) {
+				// the receiver cancels the transfer if the file cannot be opened for writing
+				throw new AbortDownloadException("Error creating file.", e);
+			}
+			publisher = null;
+			listener.started(download);
+		} else {
+			sink = null;
+			publisher = new ContentPublisher();
+			listener.started(download);
+			contentConsumer.accept(download, publisher);
+		}
+		listener.progress(count, download.length);
+	}
+
+	/**
+	 * Number of bytes written to the file so far.
+	 * 
+	 * @return Byte count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Write a verified packet to the sink.
+	 * 
+	 * @param packet Array holding the packet.
+	 * @param packetSize Number of bytes in the packet.
+	 * @throws IOException If error writing to the sink.
+	 * @throws AbortDownloadException If the file overran its declared length, and OverrunOption is ERROR.
+	 */
+	public void write(byte[] packet, int packetSize) throws IOException, AbortDownloadException {
+		if (possibleLastPacket) {
+			// the previous packet was supposed to be the last, but here we are with another packet
+			String message = "File has exceeded its declared length: " + XYModem.formatBytes(download.length);
+			if (overrunOption == OverrunOption.ERROR) {
+				throw new AbortDownloadException(message);
+			}
+			log(message);
+			possibleLastPacket = false;
+			if (holding) {
+				// keep the extra data, unless IGNORE, which drops it
+				release(overrunOption == OverrunOption.IGNORE);
+			}
+		}
+
+		long afterPacket = count + packetSize;
+		// if a length was given, and the current count is less than the length
+		// but this packet will meet or exceed the length, this might be the
+		// last packet (unless there is an overrun).
+		if ((download.length != 0) && (count < download.length) && (afterPacket >= download.length)) {
+			possibleLastPacket = true;
+		}
+		// if no length given, or still below declared size, or option is ACCEPT or MIXED, accept the data
+		if ((download.length == 0) || (count <= download.length)
+				|| (overrunOption == OverrunOption.ACCEPT) || (overrunOption == OverrunOption.MIXED)) {
+			if ((download.length == 0) && (paddingOption != PaddingOption.OFF)) {
+				// this may be the last packet, so hold it back until the next arrives
+				if (holding) {
+					release(false);
+				}
+				hold(packet, packetSize);
+			} else if (publisher == null) {
+				sink.write(wrap(packet, packetSize));
+			} else if (possibleLastPacket && (overrunOption != OverrunOption.ACCEPT)) {
+				hold(packet, packetSize);
+			} else {
+				publisher.offer(packet, 0, packetSize);
+			}
+			count += packetSize;
+		} else {
+			// if length given, and above declared size, and option is IGNORE, drop the data
+			// (if option is ERROR, should have thrown above)
+			XYModem.debug(" Ignoring packet.");
+		}
+
+		XYModem.debug(" (%d / %d)", count, download.length);
+		listener.progress(count, download.length);
+	}
+
+	/**
+	 * Complete the file after EOT, trimming it to the declared length as
+	 * called for by the OverrunOption, syncing it as called for by the
+	 * DurabilityOption, and pass it to the listener.
+	 * 
+	 * @param now Current time, on the same clock as the start time.
+	 * @throws IOException If error completing the file.
+	 */
+	public void finish(long now) throws IOException {
+		if (download.length != 0) {
+			long overrun = count - download.length;
+			if (overrun < 0) {
+				// file ended before expected packet
+				log("Received file was shorter than declared length.");
+				log(XYModem.formatBytes(count) + " / " + XYModem.formatBytes(download.length) + " (short " + XYModem.formatBytes(-overrun) + ").");
+			} else if (overrun > 0) {
+				if (possibleLastPacket) {
+					// file ended on the expected packet
+					/*
+					 * Chapter 5.  YMODEM Batch File Transmission
+					 * The receiver stores the specified number of characters, discarding
+					 * any padding added by the sender to fill up the last block.
+					 */
+					if (overrunOption != OverrunOption.ACCEPT) {
+						// Here we follow the spec and discard any extra chars from the last packet.
+						// Note: This could cause data loss if a file overruns but still ends in the same packet.
+						truncate();
+					}
+				} else {
+					// file ended after expected packet
+					if (overrunOption == OverrunOption.IGNORE) {
+						truncate();
+					} else {
+						// Here we are forgiving and allow the extra data, to handle cases where the file sent
+						// was longer than claimed.
+						// (if option is ERROR, we should have already thrown)
+						log("Received file was longer than declared length.");
+						log(XYModem.formatBytes(count) + " / " + XYModem.formatBytes(download.length) + " (extra " + XYModem.formatBytes(overrun) + ").");
+					}
+				}
+			}
+			// else file ended on the expected packet, exactly on packet boundary
+		}
+		if (holding && (download.length == 0)) {
+			trimPadding();
+		}
+		if (holding) {
+			release(false);
+		}
+		if (sink != null) {
+			sink.commit();
+			syncer.committed(sink);
+		}
+		Duration elapsed = Duration.ofNanos(now - start);
+		log("Download complete.  Elapsed time: " + XYModem.formatElapsedTime(elapsed) + " (" + XYModem.formatBPS(count, elapsed) + ")");
+		if (publisher != null) {
+			publisher.complete();
+		} else {
+			XYModem.debug("File: %s\n", download.file);
+		}
+		listener.received(download);
+	}
+
+	/**
+	 * Discard the incomplete file.
+	 */
+	public void abort() {
+		if (publisher != null) {
+			publisher.error(new AbortDownloadException("Download cancelled."));
+		} else {
+			sink.abort();
+		}
+	}
+
+	/**
+	 * Indicates whether the block just written may be ACKed: all content has
+	 * been taken by the subscriber, or the file is not being published.
+	 * 
+	 * @return True if nothing is waiting for subscriber demand.
+	 */
+	public boolean isDrained() {
+		return (publisher == null) || publisher.isDrained();
+	}
+
+	/**
+	 * Wait for the subscriber to take all published content.
+	 * 
+	 * @param nanos Longest time to wait.
+	 * @return True if drained, false if timed out.
+	 */
+	public boolean awaitDrained(long nanos) {
+		return (publisher == null) || publisher.awaitDrained(nanos);
+	}
+
+	/**
+	 * Check the subscriber is still taking the content.
+	 * 
+	 * @param streaming True if the sender can't be slowed (YModem-G).
+	 * @throws AbortDownloadException If the subscriber cancelled, or fell too far behind a streaming download.
+	 */
+	public void checkSubscriber(boolean streaming) throws AbortDownloadException {
+		if (publisher == null) {
+			return;
+		}
+		if (publisher.isCancelled()) {
+			throw new AbortDownloadException("Content subscriber cancelled.");
+		}
+		if (streaming && (publisher.getQueuedBytes() > ContentPublisher.STREAMING_LIMIT)) {
+			throw new AbortDownloadException("Content subscriber is not keeping up with streaming download.");
+		}
+	}
+
+	/**
+	 * Hold back a packet, until it is known whether it is the last.
+	 * 
+	 * @param packet Array holding the packet.
+	 * @param packetSize Number of bytes in the packet.
+	 */
+	private void hold(byte[] packet, int packetSize) {
+		if ((held == null) || (held.length < packetSize)) {
+			held = new byte[Math.max(packetSize, 1024)];
+		}
+		System.arraycopy(packet, 0, held, 0, packetSize);
+		heldSize = packetSize;
+		holding = true;
+	}
+
+	/**
+	 * Write or publish the held back packet.
+	 * 
+	 * @param truncate True to pass on only up to the declared length.
+	 * @throws IOException If error writing to the sink.
+	 */
+	private void release(boolean truncate) throws IOException {
+		int size = heldSize;
+		if (truncate) {
+			// count includes the held packet
+			size = (int)Math.max(0, Math.min(heldSize, download.length - (count - heldSize)));
+		}
+		if (publisher == null) {
+			sink.write(wrap(held, size));
+		} else {
+			publisher.offer(held, 0, size);
+		}
+		heldSize = 0;
+		holding = false;
+	}
+
+	/**
+	 * View the start of a packet array as a buffer for the sink.
+	 * The engine reuses its packet arrays, so the view is kept rather
+	 * than wrapping each packet.
+	 * 
+	 * @param array Array holding the packet.
+	 * @param size Number of bytes in the packet.
+	 * @return Buffer holding the packet.
+	 */
+	private ByteBuffer wrap(byte[] array, int size) {
+		if ((wrapper == null) || (wrapper.array() != array)) {
+			wrapper = ByteBuffer.wrap(array);
+		}
+		wrapper.clear();
+		wrapper.limit(size);
+		return wrapper;
+	}
+
+	/**
+	 * Trim the padding from the held back last packet, as called for by the PaddingOption.
+	 */
+	private void trimPadding() {
+		int size = heldSize;
+		if (paddingOption == PaddingOption.TEXT) {
+			// end at the first end of file marker
+			for (int i=0; i<heldSize; i++) {
+				if (held[i] == XYModem.EOF) {
+					size = i;
+					break;
+				}
+			}
+		} else {
+			// drop the run of padding which ends the packet
+			while ((size > 0) && (held[size - 1] == XYModem.EOF)) {
+				size--;
+			}
+		}
+		if (size < heldSize) {
+			XYModem.debug("\nTrimming %d bytes of padding.\n", heldSize - size);
+			count -= heldSize - size;
+			heldSize = size;
+			listener.progress(count, download.length);
+		}
+	}
+
+	/**
+	 * Truncate the file to its declared length.
+	 * 
+	 * @throws IOException If error truncating the sink.
+	 */
+	private void truncate() throws IOException {
+		XYModem.debug("\nTruncating downloaded file from %d to %d.\n", count, download.length);
+		if (publisher != null) {
+			if (holding) {
+				release(true);
+			}
+			count = download.length;
+			listener.progress(count, download.length);
+			return;
+		}
+		sink.truncate(download.length);
+		count = download.length;
+		listener.progress(count, download.length);
+	}
+
+	private void log(String message) {
+		XYModem.debug("\n%s\n", message);
+		listener.log(message);
+	}
+}
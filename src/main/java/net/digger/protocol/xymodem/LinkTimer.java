@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+/**
+ * Class for measuring the link, to fit timeouts to its speed.
+ * <p>
+ * Tracks the time per byte within blocks, and the turnaround time from sending
+ * a response to the start of the next block, as moving averages.
+ * Until several samples of each are measured, the timeouts given in the
+ * X/YModem spec are used.
+ * <p>
+ * All times are System.nanoTime() values, supplied by the caller so the push
+ * Receiver engine can run from its own clock.
+ * 
+ * @author agent
+ */
+class LinkTimer {
+	/**
+	 * Deadline value meaning the link has not been measured yet, so the
+	 * X/YModem spec's one-second per-character timeout applies.
+	 */
+	public static final long NO_DEADLINE = Long.MIN_VALUE;
+	private static final long MIN_BLOCK_NANOS = 200000000L;	// minimum time allowed for any part of a block
+	private static final int BLOCK_FACTOR = 4;		// allow this many times the expected time for a block
+	private static final int HEADER_FACTOR = 8;		// allow this many times the average turnaround for a header
+	private static final int MIN_HEADER_TIMEOUT = 1000;
+	private static final int MAX_HEADER_TIMEOUT = 10000;
+	private static final int MIN_SAMPLES = 4;		// samples needed before a measurement replaces the spec timeout
+	/*
+	 * Time per byte at 115200 bps, with 10 bits per byte (start, 8 data, stop).
+	 * Bytes which were buffered before they were read seem to arrive faster than
+	 * any line, so the measured time per byte is never taken to be less than this.
+	 */
+	private static final long MIN_BYTE_NANOS = 10000000000L / 115200;
+	private long byteNanos = 0;			// average nanoseconds per byte, 0 until measured
+	private int byteSamples = 0;
+	private long turnaroundNanos = 0;	// average nanoseconds from response to next header, 0 until measured
+	private int turnaroundSamples = 0;
+	private long sentAt = 0;			// System.nanoTime() when last response was sent, 0 if none pending
+
+	/**
+	 * Get the deadline for receiving the given number of bytes.
+	 * 
+	 * @param num Number of bytes to be received.
+	 * @param now Current time.
+	 * @return Deadline, or NO_DEADLINE if link not yet measured.
+	 */
+	public long deadline(int num, long now) {
+		if (byteSamples < MIN_SAMPLES) {
+			return NO_DEADLINE;
+		}
+		return now + MIN_BLOCK_NANOS + (BLOCK_FACTOR * num * byteNanos);
+	}
+	
+	/**
+	 * Get the timeout for the first byte of a block header.
+	 * <p>
+	 * While streaming (YModem-G), the sender doesn't wait for a response, so
+	 * the turnaround says nothing about when the next block will start, and
+	 * a timeout can't be recovered from.  The spec's 10 seconds always apply.
+	 * 
+	 * @param streaming True if the protocol is streaming.
+	 * @return Milliseconds to wait.
+	 */
+	public int headerTimeout(boolean streaming) {
+		if (streaming || (turnaroundSamples < MIN_SAMPLES)) {
+			return MAX_HEADER_TIMEOUT;
+		}
+		long timeout = (HEADER_FACTOR * turnaroundNanos) / 1000000;
+		return (int)Math.max(MIN_HEADER_TIMEOUT, Math.min(MAX_HEADER_TIMEOUT, timeout));
+	}
+	
+	/**
+	 * Record that a response was just sent to the sender.
+	 * 
+	 * @param now Current time.
+	 */
+	public void sent(long now) {
+		sentAt = now;
+	}
+	
+	/**
+	 * Record that the first byte of a block header was just received.
+	 * 
+	 * @param now Current time.
+	 */
+	public void headerStarted(long now) {
+		if (sentAt != 0) {
+			turnaroundNanos = average(turnaroundNanos, now - sentAt);
+			turnaroundSamples++;
+			sentAt = 0;
+		}
+	}
+	
+	/**
+	 * Record the time taken to receive part of a packet.
+	 * Only bytes which had to be waited for show the speed of the link, so
+	 * those which were already buffered when the packet began must be left out.
+	 * 
+	 * @param num Number of bytes which arrived while waiting.
+	 * @param elapsed Nanoseconds taken for them to arrive.
+	 */
+	public void packetReceived(int num, long elapsed) {
+		byteNanos = Math.max(MIN_BYTE_NANOS, average(byteNanos, elapsed / num));
+		byteSamples++;
+	}
+		/**
+	 * Fold a new sample into a moving average.
+	 * 
+	 * @param average Current average, or 0 if none yet.
+	 * @param sample New sample.
+	 * @return New average (never 0).
+	 */
+	private static long average(long average, long sample) {
+		sample = Math.max(1, sample);
+		if (average == 0) {
+			return sample;
+		}
+		return Math.max(1, average + ((sample - average) / 8));
+	}
+}
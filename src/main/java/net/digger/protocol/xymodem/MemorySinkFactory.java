@@ -0,0 +1,226 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SinkFactory which holds small files in memory, and passes larger ones on to another
+ * SinkFactory, for batches of many small files.
+ * <p>
+ * Each file is collected in a buffer of the threshold size, taken from a pool.  If the
+ * file outgrows the buffer, the content so far is spilled to a sink opened by the wrapped
+ * factory, which receives the rest of the file.  A file whose declared length (YModem)
+ * is already over the threshold goes straight to the wrapped factory.
+ * <p>
+ * A file kept in memory reaches DownloadListener.received() with its content in
+ * Download.content, and a null Download.file.  Once done with the content, pass the
+ * Download to release(), so its buffer can be reused.  Content held in memory is not
+ * affected by the DurabilityOption.
+ * 
+ * @author agent
+ */
+public class MemorySinkFactory implements SinkFactory {
+	/**
+	 * Default largest file to hold in memory.
+	 */
+	public static final int DEFAULT_THRESHOLD = 16 * 1024;
+	/**
+	 * Default number of free buffers to keep for reuse.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 64;
+
+	private final SinkFactory spill;
+	private final int threshold;
+	private final boolean direct;
+	private final int poolSize;
+	private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final AtomicLong memoryCount = new AtomicLong();
+	private final AtomicLong spillCount = new AtomicLong();
+
+	/**
+	 * Create new instance of MemorySinkFactory, with the default threshold and pool size,
+	 * which spills larger files to the temp directory.
+	 */
+	public MemorySinkFactory() {
+		this(new TempFileSinkFactory(), DEFAULT_THRESHOLD, DEFAULT_POOL_SIZE, false);
+	}
+
+	/**
+	 * Create new instance of MemorySinkFactory.
+	 * 
+	 * @param spill SinkFactory for files over the threshold.
+	 * @param threshold Largest file to hold in memory, in bytes.
+	 * @param poolSize Number of free buffers to keep for reuse.
+	 * @param direct True to use direct buffers, false for heap buffers.
+	 */
+	public MemorySinkFactory(SinkFactory spill, int threshold, int poolSize, boolean direct) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be positive.");
+		}
+		this.spill = spill;
+		this.threshold = threshold;
+		this.poolSize = Math.max(0, poolSize);
+		this.direct = direct;
+	}
+
+	@Override
+	public DownloadSink open(Download download) throws IOException {
+		if (download.length > threshold) {
+			spillCount.incrementAndGet();
+			return spill.open(download);
+		}
+		return new MemorySink(download);
+	}
+
+	/**
+	 * Return the buffer holding a file's content to the pool.
+	 * The Download's content must not be used afterwards, and is set to null.
+	 * Does nothing if the file was not held in memory.
+	 * 
+	 * @param download Received Download.
+	 */
+	public void release(Download download) {
+		ByteBuffer content = download.content;
+		if (content == null) {
+			return;
+		}
+		download.content = null;
+		// only take back buffers which could have come from the pool
+		if ((content.capacity() == threshold) && (content.isDirect() == direct)) {
+			recycle(content);
+		}
+	}
+
+	/**
+	 * @return Number of files held in memory.
+	 */
+	public long getMemoryCount() {
+		return memoryCount.get();
+	}
+
+	/**
+	 * @return Number of files passed on to the wrapped factory.
+	 */
+	public long getSpillCount() {
+		return spillCount.get();
+	}
+
+	private ByteBuffer allocate() {
+		ByteBuffer buffer = pool.poll();
+		if (buffer != null) {
+			pooled.decrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		return direct ? ByteBuffer.allocateDirect(threshold) : ByteBuffer.allocate(threshold);
+	}
+
+	private void recycle(ByteBuffer buffer) {
+		// a full pool just lets the buffer go
+		if (pooled.incrementAndGet() <= poolSize) {
+			pool.add(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Collects one file in memory, until it outgrows the buffer.
+	 */
+	private final class MemorySink implements DownloadSink {
+		private final Download download;
+		private ByteBuffer buffer;
+		private DownloadSink sink = null;		// set once spilled
+
+		public MemorySink(Download download) {
+			this.download = download;
+			this.buffer = allocate();
+		}
+
+		@Override
+		public void write(ByteBuffer data) throws IOException {
+			if ((sink == null) && (data.remaining() > buffer.remaining())) {
+				spill();
+			}
+			if (sink != null) {
+				sink.write(data);
+			} else {
+				buffer.put(data);
+			}
+		}
+
+		@Override
+		public void truncate(long length) throws IOException {
+			if (sink != null) {
+				sink.truncate(length);
+			} else if (buffer.position() > length) {
+				buffer.position((int)length);
+			}
+		}
+
+		@Override
+		public void commit() throws IOException {
+			if (sink != null) {
+				sink.commit();
+				return;
+			}
+			buffer.flip();
+			download.content = buffer;
+			buffer = null;
+			memoryCount.incrementAndGet();
+			download.resetLastModified();
+		}
+
+		@Override
+		public void sync() throws IOException {
+			if (sink != null) {
+				sink.sync();
+			}
+		}
+
+		@Override
+		public void abort() {
+			if (sink != null) {
+				sink.abort();
+			} else if (buffer != null) {
+				recycle(buffer);
+				buffer = null;
+			}
+		}
+
+		/**
+		 * Open the wrapped factory's sink, and pass it the content so far.
+		 * 
+		 * @throws IOException If error opening or writing the sink.
+		 */
+		private void spill() throws IOException {
+			XYModem.debug("\nSpilling %s to storage.\n", download.name);
+			sink = spill.open(download);
+			spillCount.incrementAndGet();
+			buffer.flip();
+			sink.write(buffer);
+			recycle(buffer);
+			buffer = null;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates uniquely named files in a directory, for downloads which may share the
+ * directory with earlier copies of the same files, and with concurrent downloads.
+ * <p>
+ * A file is created with the name given, or if that exists, with a number appended
+ * (filename-#.ext).  Files are claimed by creating them (CREATE_NEW), so two downloads
+ * can never be given the same file.  The highest number used for each name is cached,
+ * so later copies of the same name don't have to step past all the earlier ones.
+ * When a name is first seen to clash, its highest number is found by probing
+ * doubling numbers, then halving the gap, rather than trying each number in turn.
+ * <p>
+ * Once a name has clashed, later copies go straight to the next number: the name
+ * itself isn't tried again, even if that file has since been removed, until the
+ * cache is cleared.  Nor are any lower numbers which have been freed.
+ * <p>
+ * The caches only save probing, as the file system decides who gets each name, so
+ * they are simply cleared when they grow too large (MAX_NAMES per directory, and
+ * MAX_DIRECTORIES directories).
+ * 
+ * @author agent
+ */
+class NameAllocator {
+	/**
+	 * Most names to cache per directory, before the cache is cleared.
+	 */
+	private static final int MAX_NAMES = 10000;
+	/**
+	 * Most directories to cache allocators for, before the cache is cleared.
+	 */
+	private static final int MAX_DIRECTORIES = 1000;
+	/**
+	 * Largest number probed for when a name first clashes.
+	 */
+	private static final int MAX_PROBE = 1 << 30;
+	private static final ConcurrentHashMap<Path, NameAllocator> allocators = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final ConcurrentHashMap<String, AtomicInteger> suffixes = new ConcurrentHashMap<>();
+
+	private NameAllocator(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the allocator for a directory, shared by all downloads into it.
+	 * 
+	 * @param directory Directory to create files in.
+	 * @return NameAllocator for the directory.
+	 */
+	public static NameAllocator forDirectory(Path directory) {
+		if (allocators.size() >= MAX_DIRECTORIES) {
+			// any allocator still in use keeps working, it just isn't shared any more
+			allocators.clear();
+		}
+		return allocators.computeIfAbsent(directory.toAbsolutePath().normalize(), NameAllocator::new);
+	}
+
+	/**
+	 * Opens a file, only if it doesn't already exist.
+	 * 
+	 * @param <T> Type of the opened file.
+	 */
+	@FunctionalInterface
+	public static interface Opener<T> {
+		/**
+		 * Create and open the file.
+		 * 
+		 * @param path Path of the file.
+		 * @return Opened file.
+		 * @throws FileAlreadyExistsException If the file already exists.
+		 * @throws IOException If any other error opening the file.
+		 */
+		public T open(Path path) throws IOException;
+	}
+
+	/**
+	 * Claim a file with the given name, or a numbered variant of it, by creating
+	 * and opening it in one step.
+	 * 
+	 * @param <T> Type of the opened file.
+	 * @param filename Preferred file name.
+	 * @param opener Creates and opens a file, failing with FileAlreadyExistsException if it exists.
+	 * @return File opened by the opener.
+	 * @throws IOException If error creating the file.
+	 * @throws InvalidPathException If the file name can't be used in the directory.
+	 */
+	public <T> T claim(String filename, Opener<T> opener) throws IOException {
+		AtomicInteger last = suffixes.get(filename);
+		if (last == null) {
+			try {
+				return opener.open(directory.resolve(filename));
+			} catch (FileAlreadyExistsException e) {
+				// find the numbered copies
+			}
+			if (suffixes.size() >= MAX_NAMES) {
+				suffixes.clear();
+			}
+			AtomicInteger found = new AtomicInteger(probe(filename));
+			last = suffixes.putIfAbsent(filename, found);
+			if (last == null) {
+				last = found;
+			}
+		}
+		while (true) {
+			Path newfile = numbered(filename, last.incrementAndGet());
+			try {
+				return opener.open(newfile);
+			} catch (FileAlreadyExistsException e) {
+				// created since the probe, by someone else
+			}
+		}
+	}
+
+	/**
+	 * Find the highest number in use for a name, assuming the numbers in use run from 1
+	 * without gaps.  If there are gaps, a number in use may be returned instead, and
+	 * claim() steps past any further numbers in use.
+	 * 
+	 * @param filename File name.
+	 * @return Highest number found in use, or 0 if none.
+	 */
+	private int probe(String filename) {
+		if (!Files.exists(numbered(filename, 1))) {
+			return 0;
+		}
+		// double until a number not in use is found
+		int used = 1;
+		int free = 2;
+		while (Files.exists(numbered(filename, free))) {
+			used = free;
+			if (free >= MAX_PROBE) {
+				return used;
+			}
+			free *= 2;
+		}
+		// then halve the gap between the two
+		while (free - used > 1) {
+			int mid = used + ((free - used) / 2);
+			if (Files.exists(numbered(filename, mid))) {
+				used = mid;
+			} else {
+				free = mid;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Get the path of a numbered variant of a file name.
+	 * 
+	 * @param filename File name.
+	 * @param number Number to append.
+	 * @return filename-#.ext, or filename-# if there is no extension.
+	 */
+	private Path numbered(String filename, int number) {
+		int pos = filename.lastIndexOf('.');
+		// if filename has extension (ignoring . at start of name), break apart name and ext
+		if (pos > 0) {
+			return directory.resolve(filename.substring(0, pos) + '-' + number + filename.substring(pos));
+		}
+		return directory.resolve(filename + '-' + number);
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+/**
+ * Protocols which can be negotiated for a download.
+ * 
+ * @author agent
+ */
+public enum Protocol {
+	XModemChecksum ("XModem-Checksum"),
+	XModemCRC ("XModem-CRC"),
+	XModem1K ("XModem-1K"),
+	YModemBatch ("YModem-Batch"),
+	YModemG ("YModem-G");
+	/**
+	 * Display name of the protocol.
+	 */
+	public final String label;
+	private Protocol(String label) {
+		this.label = label;
+	}
+	
+	@Override
+	public String toString() {
+		return label;
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright © 2017-2019  David Walton
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class for checking off protocol options to identify protocol in use.
+ * Also keeps some flags for decisions during download.
+ * 
+ * @author walton
+ * @author agent
+ */
+class ProtocolDetector {
+	private final List<Protocol> protocols;
+	private final DownloadListener listener;
+	private boolean reported = false;
+	/**
+	 * Is CRC being used?
+	 */
+	public boolean isCRC = false;
+	/**
+	 * Is this a batch transfer?
+	 */
+	public boolean isBatch = false;
+	/**
+	 * Is this a streaming transfer?
+	 */
+	public boolean isStreaming = false;
+
+	/**
+	 * Create a new ProtocolDetector.
+	 * 
+	 * @param listener DownloadListener to use for announcing detected protocol.
+	 */
+	public ProtocolDetector(DownloadListener listener) {
+		this.listener = listener;
+		this.protocols = new ArrayList<>();
+		this.protocols.addAll(Arrays.asList(Protocol.values()));
+	}
+	
+	/**
+	 * Get the protocol in use, if it has been identified.
+	 * 
+	 * @return Detected protocol, or null if not yet confirmed.
+	 */
+	public Protocol getProtocol() {
+		return (protocols.size() == 1) ? protocols.get(0) : null;
+	}
+	
+	/**
+	 * If protocol is confirmed, and not previously announced, announce it.
+	 */
+	private void logProtocol() {
+		if (!reported && (protocols.size() == 1)) {
+			reported = true;
+			String message = "Detected protocol: " + protocols.get(0).label;
+			XYModem.debug("\n%s\n", message);
+			listener.log(message);
+		}
+	}
+	
+	/**
+	 * Set CRC on or off.
+	 * 
+	 * @param on CRC state to set.
+	 */
+	public void setCRC(boolean on) {
+		if (on) {
+			isCRC = true;
+			protocols.remove(Protocol.XModemChecksum);
+		} else {
+			isCRC = false;
+			protocols.remove(Protocol.XModemCRC);
+			protocols.remove(Protocol.XModem1K);
+			protocols.remove(Protocol.YModemBatch);
+			protocols.remove(Protocol.YModemG);
+		}
+		logProtocol();
+	}
+	
+	/**
+	 * Set streaming on or off.
+	 * 
+	 * @param on Streaming state to set.
+	 */
+	public void setStreaming(boolean on) {
+		if (on) {
+			isCRC = true;
+			isStreaming = true;
+			protocols.remove(Protocol.XModemChecksum);
+			protocols.remove(Protocol.XModemCRC);
+			protocols.remove(Protocol.XModem1K);
+			protocols.remove(Protocol.YModemBatch);
+		} else {
+			isStreaming = false;
+			protocols.remove(Protocol.YModemG);
+		}
+		logProtocol();
+	}
+	
+	/**
+	 * Set batch on or off.
+	 * 
+	 * @param on Batch state to set.
+	 */
+	public void setBatch(boolean on) {
+		if (on) {
+			isBatch = true;
+			protocols.remove(Protocol.XModemChecksum);
+			protocols.remove(Protocol.XModemCRC);
+			protocols.remove(Protocol.XModem1K);
+		} else {
+			isBatch = false;
+			protocols.remove(Protocol.YModemBatch);
+			protocols.remove(Protocol.YModemG);
+		}
+		logProtocol();
+	}
+	
+	/**
+	 * Set 1K blocks on or off.
+	 * 
+	 * @param on 1K blocks state to set.
+	 */
+	public void set1K(boolean on) {
+		if (on) {
+			protocols.remove(Protocol.XModemChecksum);
+			protocols.remove(Protocol.XModemCRC);
+		} else {
+			protocols.remove(Protocol.XModem1K);
+			protocols.remove(Protocol.YModemBatch);
+			protocols.remove(Protocol.YModemG);
+		}
+		logProtocol();
+	}
+}
@@ -0,0 +1,604 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs many X/YModem downloads over SocketChannels, using a few Selector
+ * event loop threads instead of a thread per download.
+ * <p>
+ * Each connection, whether accepted from a bound address or handed over
+ * with add(), is assigned to an event loop, and downloaded by a Receiver
+ * created for it by the factory.  The channel is closed when the download
+ * is complete or cancelled.
+ * 
+ * @author agent
+ */
+public class ReceiveServer implements Closeable {
+	private static final int WHEEL_BUCKETS = 512;
+	private static final long WHEEL_RESOLUTION = 10000000L;	// 10ms, small next to the shortest protocol timeout
+	/*
+	 * Connections waiting to be accepted.  The JDK's default (50) overflows when
+	 * many senders connect at once, and each dropped connection attempt is only
+	 * retried by the client's TCP stack a second or more later.
+	 */
+	private static final int BACKLOG = 1024;
+	/**
+	 * Snapshot of the activity of one event loop.
+	 */
+	public static final class LoopStats {
+		private final int sessions;
+		private final long completed;
+		private final long events;
+		private final long totalLatency;
+		private final long maxLatency;
+		private final int timers;
+		private final int timerOccupancy;
+		private final long timerResolution;
+
+		private LoopStats(int sessions, long completed, long events, long totalLatency, long maxLatency,
+				int timers, int timerOccupancy, long timerResolution) {
+			this.sessions = sessions;
+			this.completed = completed;
+			this.events = events;
+			this.totalLatency = totalLatency;
+			this.maxLatency = maxLatency;
+			this.timers = timers;
+			this.timerOccupancy = timerOccupancy;
+			this.timerResolution = timerResolution;
+		}
+
+		/**
+		 * @return Number of downloads currently in progress on this loop.
+		 */
+		public int getSessions() {
+			return sessions;
+		}
+
+		/**
+		 * @return Number of downloads finished (complete or cancelled) on this loop.
+		 */
+		public long getCompleted() {
+			return completed;
+		}
+
+		/**
+		 * @return Number of reads and timeouts processed by this loop.
+		 */
+		public long getEvents() {
+			return events;
+		}
+
+		/**
+		 * @return Average nanoseconds spent processing each event.
+		 */
+		public long getAverageLatency() {
+			return (events == 0) ? 0 : totalLatency / events;
+		}
+
+		/**
+		 * @return Most nanoseconds spent processing a single event.
+		 */
+		public long getMaxLatency() {
+			return maxLatency;
+		}
+
+		/**
+		 * @return Number of armed protocol timeouts.
+		 */
+		public int getTimers() {
+			return timers;
+		}
+
+		/**
+		 * @return Most armed timeouts in one timer wheel bucket, as of the last time any fired.
+		 */
+		public int getTimerOccupancy() {
+			return timerOccupancy;
+		}
+
+		/**
+		 * @return Timer wheel tick length, in nanoseconds.  Timeouts fire up to this much late.
+		 */
+		public long getTimerResolution() {
+			return timerResolution;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("sessions=%d completed=%d events=%d avgLatency=%dns maxLatency=%dns timers=%d timerOccupancy=%d",
+					sessions, completed, events, getAverageLatency(), maxLatency, timers, timerOccupancy);
+		}
+	}
+
+	/**
+	 * One download, attached to its channel's SelectionKey.
+	 */
+	private static final class Session {
+		public final SocketChannel channel;
+		public final Receiver receiver;
+		public SelectionKey key = null;
+		public ByteBuffer pending = null;	// output not yet accepted by the channel
+		public TimerWheel.Timer<Session> timer = null;
+
+		public Session(SocketChannel channel, Receiver receiver) {
+			this.channel = channel;
+			this.receiver = receiver;
+		}
+	}
+
+	/**
+	 * A Selector and the thread which runs it.
+	 */
+	private final class EventLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+		private final TimerWheel<Session> wheel = new TimerWheel<>(WHEEL_BUCKETS, WHEEL_RESOLUTION, System.nanoTime());
+		// written only by the loop thread
+		private volatile int sessions = 0;
+		private volatile long completed = 0;
+		private volatile long events = 0;
+		private volatile long totalLatency = 0;
+		private volatile long maxLatency = 0;
+		private volatile int timers = 0;
+		private volatile int timerOccupancy = 0;
+
+		public EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Run a task on the loop thread.
+		 * 
+		 * @param task Task to run.
+		 */
+		public void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		public LoopStats getStats() {
+			return new LoopStats(sessions, completed, events, totalLatency, maxLatency,
+					timers, timerOccupancy, wheel.getResolution());
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					long timeout = 0;
+					long nextTick = wheel.getNextTick();
+					if (nextTick != Long.MAX_VALUE) {
+						// Selector timeouts are in milliseconds; round up so we don't wake early.
+						timeout = Math.max(1, (nextTick - System.nanoTime() + 999999) / 1000000);
+					}
+					selector.select(timeout);
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (key.isValid()) {
+							handle(key);
+						}
+					}
+					if (wheel.expire(System.nanoTime(), this::timeout) > 0) {
+						timerOccupancy = wheel.getMaxOccupancy();
+					}
+					timers = wheel.size();
+				}
+			} catch (IOException e) {
+				// Selector failed, so nothing more can be done on this loop.
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof Session) {
+						close((Session)key.attachment());
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+
+		/**
+		 * Begin a download on a newly connected channel.
+		 * <p>
+		 * Here and in handle() and timeout(), a RuntimeException from the
+		 * application's code (factory, listener, consumer or sink) closes only
+		 * the session it was thrown for, so the loop goes on running the rest.
+		 * 
+		 * @param channel Connected channel.
+		 */
+		public void open(SocketChannel channel) {
+			Session session = null;
+			try {
+				channel.configureBlocking(false);
+				session = new Session(channel, factory.apply(channel));
+				session.timer = wheel.newTimer(session);
+				session.key = channel.register(selector, SelectionKey.OP_READ, session);
+				sessions++;
+				long now = System.nanoTime();
+				write(session, session.receiver.start(now));
+				schedule(session);
+			} catch (IOException | RuntimeException e) {
+				if (session != null) {
+					close(session);
+				} else {
+					try {
+						channel.close();
+					} catch (IOException e2) {
+						// ignore
+					}
+				}
+			}
+		}
+
+		/**
+		 * Handle a ready key.
+		 * 
+		 * @param key Selected key.
+		 */
+		private void handle(SelectionKey key) {
+			if (key.isAcceptable()) {
+				accept((ServerSocketChannel)key.channel());
+				return;
+			}
+			Session session = (Session)key.attachment();
+			try {
+				if (key.isWritable()) {
+					flush(session);
+				}
+				if (key.isValid() && key.isReadable() && (read(session) < 0)) {
+					return;
+				}
+				finish(session);
+			} catch (IOException | RuntimeException e) {
+				close(session);
+			}
+		}
+
+		/**
+		 * Accept all waiting connections, spreading them across the event loops.
+		 * 
+		 * @param server Listening channel.
+		 */
+		private void accept(ServerSocketChannel server) {
+			try {
+				SocketChannel channel;
+				while ((channel = server.accept()) != null) {
+					add(channel);
+				}
+			} catch (IOException e) {
+				// try again on next select
+			}
+		}
+
+		/**
+		 * Read available input and pass it to the Receiver.
+		 * 
+		 * @param session Session to read for.
+		 * @return Number of bytes read, or -1 if the sender hung up (and the session has been closed).
+		 * @throws IOException
+		 */
+		private int read(Session session) throws IOException {
+			readBuffer.clear();
+			int count = session.channel.read(readBuffer);
+			if (count < 0) {
+				close(session);
+				return count;
+			}
+			if (count > 0) {
+				readBuffer.flip();
+				long now = System.nanoTime();
+				write(session, session.receiver.receive(readBuffer, now));
+				record(now);
+			}
+			return count;
+		}
+
+		/**
+		 * Handle a download whose timer has fired.
+		 * 
+		 * @param session Session whose deadline has passed.
+		 */
+		private void timeout(Session session) {
+			try {
+				// Input may have arrived while this loop was busy; it's not a timeout if so.
+				int count = read(session);
+				if (count < 0) {
+					return;
+				}
+				if (count == 0) {
+					long now = System.nanoTime();
+					write(session, session.receiver.tick(now));
+					record(now);
+				}
+				finish(session);
+			} catch (IOException | RuntimeException e) {
+				close(session);
+			}
+		}
+
+		/**
+		 * Arm the download's timer for its current deadline.
+		 * 
+		 * @param session Session to schedule.
+		 */
+		private void schedule(Session session) {
+			if (session.receiver.isDone()) {
+				wheel.cancel(session.timer);
+			} else {
+				wheel.schedule(session.timer, session.receiver.getDeadline());
+			}
+		}
+
+		/**
+		 * Count an event, and the time taken to process it.
+		 * 
+		 * @param start Time event processing began.
+		 */
+		private void record(long start) {
+			long latency = System.nanoTime() - start;
+			events++;
+			totalLatency += latency;
+			if (latency > maxLatency) {
+				maxLatency = latency;
+			}
+		}
+
+		/**
+		 * Send output from the Receiver, keeping whatever the channel won't take yet.
+		 * 
+		 * @param session Session to send for.
+		 * @param output Bytes to transmit.
+		 * @throws IOException
+		 */
+		private void write(Session session, ByteBuffer output) throws IOException {
+			if (!output.hasRemaining()) {
+				return;
+			}
+			if (session.pending == null) {
+				session.channel.write(output);
+				if (!output.hasRemaining()) {
+					return;
+				}
+				session.pending = ByteBuffer.allocate(output.remaining());
+			} else {
+				ByteBuffer grown = ByteBuffer.allocate(session.pending.remaining() + output.remaining());
+				grown.put(session.pending);
+				session.pending = grown;
+			}
+			session.pending.put(output);
+			session.pending.flip();
+			session.key.interestOps(session.key.interestOps() | SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Send pending output, once the channel is writable again.
+		 * 
+		 * @param session Session to send for.
+		 * @throws IOException
+		 */
+		private void flush(Session session) throws IOException {
+			session.channel.write(session.pending);
+			if (!session.pending.hasRemaining()) {
+				session.pending = null;
+				session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Close the session once its download is done and all output sent,
+		 * otherwise include it in the next wakeup.
+		 * 
+		 * @param session Session to check.
+		 */
+		private void finish(Session session) {
+			if (session.receiver.isDone()) {
+				if (session.pending == null) {
+					close(session);
+				}
+			} else {
+				schedule(session);
+			}
+		}
+
+		/**
+		 * Close the session's channel, cancelling its download if still in progress.
+		 * 
+		 * @param session Session to close.
+		 */
+		private void close(Session session) {
+			if (!session.receiver.isDone()) {
+				try {
+					session.receiver.cancel(System.nanoTime());
+				} catch (RuntimeException e) {
+					// the session is being closed anyway
+				}
+			}
+			wheel.cancel(session.timer);
+			if (session.key != null) {
+				session.key.cancel();
+				session.key = null;
+				sessions--;
+				completed++;
+			}
+			try {
+				session.channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private final Function<SocketChannel, Receiver> factory;
+	private final EventLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final List<ServerSocketChannel> servers = new ArrayList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private volatile boolean running = false;
+
+	/**
+	 * Create new instance of ReceiveServer.
+	 * 
+	 * @param loopCount Number of event loop threads.
+	 * @param factory Creates the Receiver for each connection, with its DownloadListener and options.
+	 * Called on the event loop thread.
+	 * @throws IOException If a Selector could not be opened.
+	 */
+	public ReceiveServer(int loopCount, Function<SocketChannel, Receiver> factory) throws IOException {
+		if (loopCount < 1) {
+			throw new IllegalArgumentException("loopCount must be at least 1.");
+		}
+		this.factory = factory;
+		loops = new EventLoop[loopCount];
+		for (int i=0; i<loopCount; i++) {
+			loops[i] = new EventLoop();
+		}
+	}
+
+	/**
+	 * Start the event loop threads.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (int i=0; i<loops.length; i++) {
+			Thread thread = new Thread(loops[i], "xymodem-loop-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Accept connections on the given address, and download from each of them.
+	 * 
+	 * @param address Local address to listen on.
+	 * @return Bound address (useful if port 0 was given).
+	 * @throws IOException If the address could not be bound.
+	 */
+	public SocketAddress bind(SocketAddress address) throws IOException {
+		return bind(address, BACKLOG);
+	}
+
+	/**
+	 * Accept connections on the given address, and download from each of them.
+	 * 
+	 * @param address Local address to listen on.
+	 * @param backlog Most connections waiting to be accepted (default 1024, limited by the OS).
+	 * @return Bound address (useful if port 0 was given).
+	 * @throws IOException If the address could not be bound.
+	 */
+	public synchronized SocketAddress bind(SocketAddress address, int backlog) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.bind(address, backlog);
+			server.configureBlocking(false);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		servers.add(server);
+		EventLoop loop = loops[0];
+		loop.execute(() -> {
+			try {
+				server.register(loop.selector, SelectionKey.OP_ACCEPT);
+			} catch (IOException e) {
+				try {
+					server.close();
+				} catch (IOException e2) {
+					// ignore
+				}
+			}
+		});
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * Download from an already connected channel, such as one whose
+	 * telnet negotiation has been handled elsewhere.
+	 * Any blocking mode of the channel is changed to non-blocking.
+	 * 
+	 * @param channel Connected channel.
+	 */
+	public void add(SocketChannel channel) {
+		EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+		loop.execute(() -> loop.open(channel));
+	}
+
+	/**
+	 * Get the activity of each event loop.
+	 * 
+	 * @return One LoopStats per event loop.
+	 */
+	public List<LoopStats> getLoopStats() {
+		List<LoopStats> stats = new ArrayList<>(loops.length);
+		for (EventLoop loop : loops) {
+			stats.add(loop.getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Stop listening, cancel any downloads in progress, and stop the event loop threads.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		running = false;
+		for (ServerSocketChannel server : servers) {
+			server.close();
+		}
+		servers.clear();
+		for (EventLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		threads.clear();
+	}
+}
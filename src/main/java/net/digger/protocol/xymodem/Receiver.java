@@ -0,0 +1,1130 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import net.digger.protocol.xymodem.XYModem.DurabilityOption;
+import net.digger.protocol.xymodem.XYModem.OverrunOption;
+import net.digger.protocol.xymodem.XYModem.PaddingOption;
+import net.digger.protocol.xymodem.XYModem.ResyncOption;
+
+/**
+ * Push-style implementation of the client side of XModem and YModem protocols,
+ * for downloading files without dedicating a thread to each download.
+ * <p>
+ * Where XYModem.download() blocks in IOHandler.read() until the download is
+ * complete, a Receiver is fed the bytes from the sender as they arrive, and a
+ * clock tick when nothing arrives.  Each call returns the bytes to transmit to
+ * the sender.  Completed files, logging and progress are reported to the
+ * DownloadListener, from within those calls.
+ * <p>
+ * The handshake, retry, overrun and cancel behavior are the same as XYModem.download().
+ * <p>
+ * Times are System.nanoTime() values, supplied by the caller.
+ * A Receiver is not thread-safe; calls for one download must not overlap.
+ * 
+ * @author agent
+ */
+public class Receiver {
+	/**
+	 * What the Receiver is waiting for.
+	 */
+	private enum State {
+		PURGE,			// line to clear before handshake
+		HANDSHAKE,		// response to handshake
+		HEADER,			// first byte of block header
+		HEADER_CAN,		// second CAN of cancel sequence
+		HEADER_REST,	// block number and complement
+		PACKET,			// block data
+		CRC,			// block CRC/checksum
+		WAIT_DEMAND,	// content subscriber to take the block, before ACK
+		RESYNC_PURGE,	// line to clear before NAK (ResyncOption.PURGE)
+		RESYNC_SCAN,	// short gap or header before NAK (ResyncOption.SCAN)
+		CANCEL_PURGE,	// line to clear (or echoed cancel) before finishing cancel
+		DONE			// download complete or cancelled
+	}
+	/**
+	 * Handshake characters to try, in order, with how many times and how long to wait for each.
+	 */
+	private enum Handshake {
+		KNOWN ((char)0, 10, 10000),	// handshake already established by previous file
+		G ('G', 3, 2000),
+		C ('C', 3, 2000),
+		NAK (XYModem.NAK, 4, 2000);
+		public final char ch;
+		public final int tries;
+		public final long timeout;
+		private Handshake(char ch, int tries, int msTimeout) {
+			this.ch = ch;
+			this.tries = tries;
+			this.timeout = msTimeout * 1000000L;
+		}
+	}
+	private static final long SECOND = 1000000000L;
+	private static final long SCAN_TIMEOUT = 250000000L;	// gap which ends a bad block in ResyncOption.SCAN
+	private static final long DEMAND_POLL = 10000000L;		// how often to check for content subscriber demand
+
+	private final DownloadListener listener;
+	private final TransferTracker tracker;
+	private final CompletableFuture<TransferResult> result = new CompletableFuture<>();
+	private Consumer<CompletableFuture<Download>> fileConsumer = null;
+	private BiConsumer<Download, ContentFlow.Publisher<ByteBuffer>> contentConsumer = null;
+	private SinkFactory sinkFactory = new TempFileSinkFactory();
+	private DurabilityOption durabilityOption = DurabilityOption.NONE;
+	private FileSyncer syncer;
+	private String cancelReason = null;
+	private final ProtocolDetector protocol;
+	private final LinkTimer timer = new LinkTimer();
+	private OverrunOption overrunOption = OverrunOption.MIXED;
+	private PaddingOption paddingOption = PaddingOption.OFF;
+	private ResyncOption resyncOption = ResyncOption.PURGE;
+	private int purgeTimeLimit = 60000;
+	private long purgeByteLimit = 65536;
+	private long purgeResyncCount = 0;
+	private long scanResyncCount = 0;
+	private long headerResyncCount = 0;
+
+	private State state = State.PURGE;
+	private long deadline = 0;			// when the current wait times out
+	private long idleTimeout = 0;		// if not 0, deadline is extended by this much on each byte
+	// handshake
+	private Handshake stage = null;
+	private int attempts = 0;
+	private char handshake = 0;			// established handshake character (0 if not yet known)
+	// per-file
+	private long start = 0;
+	private boolean endOfFile = false;
+	private int prevBlockNum = XYModem.NO_BLOCK;
+	private IncomingFile file = null;
+	private int retries = 0;
+	// per-block
+	private final byte[] header = new byte[3];
+	private final byte[] shortPacket = new byte[128];
+	private final byte[] longPacket = new byte[1024];
+	private final byte[] crc = new byte[2];
+	private int headerPos = 0;
+	private byte[] packet = null;
+	private int packetSize = 0;
+	private int packetPos = 0;
+	private int packetCRC = 0;
+	private long packetStart = 0;
+	private int packetBuffered = 0;		// packet bytes received along with the header
+	private long demandStart = 0;
+	private int crcSize = 0;
+	private int crcPos = 0;
+	private int blockNum = XYModem.NO_BLOCK;
+	// purging and resync
+	private String resyncMessage = null;
+	private long purgeStart = 0;
+	private long purgeEnd = 0;			// purge time limit, as a deadline
+	private boolean purgeCut = false;	// deadline was cut short by purgeEnd
+	private long purgeBytes = 0;
+	private int scan0 = XYModem.TIMEOUT;
+	private int scan1 = XYModem.TIMEOUT;
+	private int can = 0;
+	private int bs = 0;
+	// bytes to transmit, returned from each call
+	private byte[] output = new byte[64];
+	private ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+	private int outputLength = 0;
+
+	/**
+	 * Create new instance of Receiver.
+	 * 
+	 * @param listener DownloadListener to receive logging, progress and received file events.
+	 */
+	public Receiver(DownloadListener listener) {
+		this.listener = listener;
+		this.tracker = new TransferTracker(listener, future -> {
+			if (fileConsumer != null) {
+				fileConsumer.accept(future);
+			}
+		});
+		this.protocol = new ProtocolDetector(tracker);
+	}
+
+	/**
+	 * Set the behavior for data received past the end of a downloaded file.
+	 * 
+	 * @param option Overrun behavior (default OverrunOption.MIXED).
+	 * @see XYModem#setOverrunOption(OverrunOption)
+	 */
+	public void setOverrunOption(OverrunOption option) {
+		this.overrunOption = option;
+	}
+
+	/**
+	 * Set how the padding of the last block is handled, for files sent without a length.
+	 * 
+	 * @param option Padding behavior (default PaddingOption.OFF).
+	 * @see XYModem#setPaddingOption(PaddingOption)
+	 */
+	public void setPaddingOption(PaddingOption option) {
+		this.paddingOption = option;
+	}
+
+	/**
+	 * Set a consumer to be given a future for each file, as its download begins.
+	 * 
+	 * @param consumer Consumer of file futures (null for none).
+	 * @see XYModem#setFileConsumer(Consumer)
+	 */
+	public void setFileConsumer(Consumer<CompletableFuture<Download>> consumer) {
+		this.fileConsumer = consumer;
+	}
+
+	/**
+	 * Set the factory which opens the destination for each file's content.
+	 * 
+	 * @param factory SinkFactory to use (default TempFileSinkFactory).
+	 * @see XYModem#setSinkFactory(SinkFactory)
+	 */
+	public void setSinkFactory(SinkFactory factory) {
+		this.sinkFactory = factory;
+	}
+
+	/**
+	 * Set how received files are made durable before the sender is told they were delivered.
+	 * <p>
+	 * Syncing blocks the calling thread until the storage device has the files, so with
+	 * FILE or BATCH an EOT can hold up an event loop for the length of a sync.
+	 * 
+	 * @param option Durability policy (default DurabilityOption.NONE).
+	 * @see XYModem#setDurabilityOption(DurabilityOption)
+	 */
+	public void setDurabilityOption(DurabilityOption option) {
+		this.durabilityOption = option;
+	}
+
+	/**
+	 * Set a consumer to receive the content of each file, instead of writing it to a local file.
+	 * <p>
+	 * While a block waits for the subscriber to take it, the Receiver checks for demand
+	 * every 10ms, so getDeadline() should be honored as usual.
+	 * 
+	 * @param consumer Consumer of content publishers (null to write local files).
+	 * @see XYModem#setContentConsumer(BiConsumer)
+	 */
+	public void setContentConsumer(BiConsumer<Download, ContentFlow.Publisher<ByteBuffer>> consumer) {
+		this.contentConsumer = consumer;
+	}
+
+	/**
+	 * Set the strategy used to resynchronize with the sender after a bad block.
+	 * 
+	 * @param option Resync strategy (default ResyncOption.PURGE).
+	 * @see XYModem#setResyncOption(ResyncOption)
+	 */
+	public void setResyncOption(ResyncOption option) {
+		this.resyncOption = option;
+	}
+
+	/**
+	 * Set the limits on how long to wait for the line to clear.
+	 * 
+	 * @param maxMillis Maximum milliseconds to wait for the line to clear (default 60000).
+	 * @param maxBytes Maximum bytes to discard while waiting for the line to clear (default 65536).
+	 * @see XYModem#setPurgeLimits(int, long)
+	 */
+	public void setPurgeLimits(int maxMillis, long maxBytes) {
+		this.purgeTimeLimit = maxMillis;
+		this.purgeByteLimit = maxBytes;
+	}
+
+	/**
+	 * Number of NAKs sent after waiting for the line to be silent (ResyncOption.PURGE).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getPurgeResyncCount() {
+		return purgeResyncCount;
+	}
+
+	/**
+	 * Number of NAKs sent without waiting for the line to be silent (ResyncOption.SCAN).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getScanResyncCount() {
+		return scanResyncCount;
+	}
+
+	/**
+	 * Number of times a block header was found while scanning after a bad block,
+	 * so no NAK was needed (ResyncOption.SCAN).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getHeaderResyncCount() {
+		return headerResyncCount;
+	}
+
+	/**
+	 * Begin download of file(s).
+	 * 
+	 * @param now Current time.
+	 * @return Bytes to transmit to the sender (valid until the next call).
+	 */
+	public ByteBuffer start(long now) {
+		beginOutput();
+		syncer = new FileSyncer(durabilityOption);
+		tracker.start(now);
+		startPurge(State.PURGE, SECOND, now);
+		return endOutput();
+	}
+
+	/**
+	 * Process bytes received from the sender.
+	 * 
+	 * @param data Received bytes.  All remaining bytes are consumed.
+	 * @param now Current time.
+	 * @return Bytes to transmit to the sender (valid until the next call).
+	 */
+	public ByteBuffer receive(ByteBuffer data, long now) {
+		beginOutput();
+		// Input which was waiting while the caller was busy is not a timeout,
+		// just as a blocking read would return it.
+		while (data.hasRemaining() && (state != State.DONE)) {
+			if (state == State.PACKET) {
+				receivePacket(data, now);
+			} else {
+				receive(data.get() & 0xFF, now);
+			}
+		}
+		data.position(data.limit());
+		return endOutput();
+	}
+
+	/**
+	 * Process the passing of time, when no bytes have been received.
+	 * Should be called at or after getDeadline().
+	 * 
+	 * @param now Current time.
+	 * @return Bytes to transmit to the sender (valid until the next call).
+	 */
+	public ByteBuffer tick(long now) {
+		beginOutput();
+		checkTimeout(now);
+		return endOutput();
+	}
+
+	/**
+	 * Cancel the download, as if the user cancelled it.
+	 * 
+	 * @param now Current time.
+	 * @return Bytes to transmit to the sender (valid until the next call).
+	 */
+	public ByteBuffer cancel(long now) {
+		beginOutput();
+		if ((state != State.DONE) && (state != State.CANCEL_PURGE)) {
+			cancel("Download cancelled by user.", now);
+		}
+		return endOutput();
+	}
+
+	/**
+	 * Time at which tick() should next be called, if no bytes are received before then.
+	 * 
+	 * @return Deadline, or Long.MAX_VALUE if download is done.
+	 */
+	public long getDeadline() {
+		return (state == State.DONE) ? Long.MAX_VALUE : deadline;
+	}
+
+	/**
+	 * Result of the download session.
+	 * Completed by the call which ends the session, on the caller's thread.
+	 * 
+	 * @return Future result of the download session.
+	 */
+	public CompletableFuture<TransferResult> getResult() {
+		return result;
+	}
+
+	/**
+	 * Indicates whether the download is complete or cancelled.
+	 * 
+	 * @return True if no more calls are needed.
+	 */
+	public boolean isDone() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * Handle a timeout, if the current wait has passed its deadline.
+	 * 
+	 * @param now Current time.
+	 */
+	private void checkTimeout(long now) {
+		if ((state == State.DONE) || ((now - deadline) < 0)) {
+			return;
+		}
+		switch (state) {
+			case PURGE:
+				if (purgeTimedOut()) {
+					abort("Line did not clear before handshake.", now);
+					break;
+				}
+				beginHandshake(now);
+				break;
+			case HANDSHAKE:
+				handshakeTimeout(now);
+				break;
+			case HEADER:
+			case HEADER_CAN:
+			case HEADER_REST:
+				error("Timed out waiting for block header.", true, now);
+				break;
+			case PACKET:
+				error("Timed out waiting for block data.", true, now);
+				break;
+			case CRC:
+				error("Timed out waiting for block CRC/checksum.", true, now);
+				break;
+			case WAIT_DEMAND:
+				checkDemand(now);
+				break;
+			case RESYNC_PURGE:
+				if (purgeTimedOut()) {
+					abort("Line did not clear after error: " + resyncMessage, now);
+					break;
+				}
+				purgeResyncCount++;
+				send(XYModem.NAK, now);
+				nextAttempt(now);
+				break;
+			case RESYNC_SCAN:
+				if (purgeTimedOut()) {
+					abort("No block header found after error.", now);
+					break;
+				}
+				scanResyncCount++;
+				send(XYModem.NAK, now);
+				nextAttempt(now);
+				break;
+			case CANCEL_PURGE:
+				finishCancel(now);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Process one received byte.
+	 * 
+	 * @param ch Received byte (0-255).
+	 * @param now Current time.
+	 */
+	private void receive(int ch, long now) {
+		extendDeadline(now);
+		switch (state) {
+			case PURGE:
+				if (purgeLimitReached(now)) {
+					abort("Line did not clear before handshake.", now);
+				}
+				break;
+			case HANDSHAKE:
+				handshakeReceived(now);
+				receive(ch, now);
+				break;
+			case HEADER:
+				headerStart(ch, now);
+				break;
+			case HEADER_CAN:
+				if (ch == XYModem.CAN) {
+					XYModem.debug(" 0x%02x CAN\n", ch);
+					abort("Cancel received from sender.", now);
+					break;
+				}
+				// Not a valid header, but not a cancel.
+				XYModem.debug(" 0x%02x INVALID\n", ch);
+				error("Invalid packet header (0x" + Integer.toHexString(header[0]) + ").", false, now);
+				break;
+			case HEADER_REST:
+				header[headerPos++] = (byte)ch;
+				if (headerPos == header.length) {
+					headerComplete(now);
+				}
+				break;
+			case CRC:
+				crc[crcPos++] = (byte)ch;
+				if (crcPos == crcSize) {
+					crcComplete(now);
+				}
+				break;
+			case WAIT_DEMAND:
+				// The sender shouldn't send anything before the ACK, unless it has given up
+				// waiting and is repeating the block, which we already have.
+				break;
+			case RESYNC_PURGE:
+				if (purgeLimitReached(now)) {
+					abort("Line did not clear after error: " + resyncMessage, now);
+				}
+				break;
+			case RESYNC_SCAN:
+				scan(ch, now);
+				break;
+			case CANCEL_PURGE:
+				cancelPurge(ch, now);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Begin waiting for the line to clear.
+	 * 
+	 * @param purgeState State to wait in.
+	 * @param quiet Time with no input which means the line is clear.
+	 * @param now Current time.
+	 */
+	private void startPurge(State purgeState, long quiet, long now) {
+		state = purgeState;
+		idleTimeout = quiet;
+		purgeStart = now;
+		// at least one quiet time, so a silent line can always be seen to clear
+		purgeEnd = now + Math.max(purgeTimeLimit * 1000000L, quiet);
+		purgeBytes = 0;
+		deadline = now;
+		extendDeadline(now);
+	}
+
+	/**
+	 * Push the deadline back after input, if waiting for a gap in the input.
+	 * While purging, the deadline is not pushed past the purge time limit,
+	 * so a sender which pauses just under the gap can't overrun the limit.
+	 * 
+	 * @param now Current time.
+	 */
+	private void extendDeadline(long now) {
+		if (idleTimeout == 0) {
+			return;
+		}
+		deadline = now + idleTimeout;
+		purgeCut = isPurging() && ((deadline - purgeEnd) > 0);
+		if (purgeCut) {
+			deadline = purgeEnd;
+		}
+	}
+
+	/**
+	 * Indicates whether waiting for the line to clear (or a resync header).
+	 * 
+	 * @return True if in a purge state.
+	 */
+	private boolean isPurging() {
+		return (state == State.PURGE) || (state == State.RESYNC_PURGE)
+				|| (state == State.RESYNC_SCAN) || (state == State.CANCEL_PURGE);
+	}
+
+	/**
+	 * Indicates whether the current purge timed out at its time limit,
+	 * rather than after a gap in the input.
+	 * 
+	 * @return True if the purge time limit was reached.
+	 */
+	private boolean purgeTimedOut() {
+		return purgeCut;
+	}
+
+	/**
+	 * Count a purged byte, and check whether the purge has run past the purge limits.
+	 * 
+	 * @param now Current time.
+	 * @return True if either limit has been reached.
+	 */
+	private boolean purgeLimitReached(long now) {
+		purgeBytes++;
+		return (purgeBytes >= purgeByteLimit) || ((now - purgeStart) >= (purgeTimeLimit * 1000000L));
+	}
+
+	/**
+	 * Begin waiting for the given part of a block.
+	 * 
+	 * @param waitState State to wait in.
+	 * @param partDeadline Deadline from LinkTimer, or LinkTimer.NO_DEADLINE.
+	 * @param now Current time.
+	 */
+	private void expect(State waitState, long partDeadline, long now) {
+		state = waitState;
+		if (partDeadline == LinkTimer.NO_DEADLINE) {
+			// one-second timeout for each character
+			idleTimeout = SECOND;
+			deadline = now + SECOND;
+		} else {
+			idleTimeout = 0;
+			deadline = partDeadline;
+		}
+	}
+
+	/**
+	 * Begin the handshake for the next file, skipping the purge if the
+	 * previous file in a batch ended cleanly.
+	 * 
+	 * @param now Current time.
+	 */
+	private void beginHandshake(long now) {
+		if (handshake != 0) {
+			stage = Handshake.KNOWN;
+		} else {
+			stage = Handshake.G;
+			log("Checking for YModem-G...");
+		}
+		attempts = 0;
+		sendHandshake(now);
+	}
+
+	/**
+	 * Send the current handshake character, and wait for a response.
+	 * 
+	 * @param now Current time.
+	 */
+	private void sendHandshake(long now) {
+		send((stage == Handshake.KNOWN) ? handshake : stage.ch, now);
+		state = State.HANDSHAKE;
+		idleTimeout = 0;
+		deadline = now + stage.timeout;
+	}
+
+	/**
+	 * Handle a handshake timeout, by trying again, or moving on to the next handshake.
+	 * 
+	 * @param now Current time.
+	 */
+	private void handshakeTimeout(long now) {
+		attempts++;
+		if (attempts < stage.tries) {
+			sendHandshake(now);
+			return;
+		}
+		attempts = 0;
+		switch (stage) {
+			case G:
+				protocol.setStreaming(false);
+				stage = Handshake.C;
+				log("Checking for YModem-Batch, XModem-1K or XModem-CRC...");
+				sendHandshake(now);
+				break;
+			case C:
+				protocol.setCRC(false);
+				stage = Handshake.NAK;
+				log("Starting XModem-Checksum...");
+				sendHandshake(now);
+				break;
+			default:
+				abort("Handshake timed out.", now);
+				break;
+		}
+	}
+
+	/**
+	 * Handle a response to the handshake, and begin receiving a file.
+	 * 
+	 * @param now Current time.
+	 */
+	private void handshakeReceived(long now) {
+		switch (stage) {
+			case G:
+				protocol.setStreaming(true);
+				handshake = 'G';
+				break;
+			case C:
+				protocol.setCRC(true);
+				handshake = 'C';
+				break;
+			case NAK:
+				handshake = XYModem.NAK;
+				break;
+			default:
+				break;
+		}
+		start = now;
+		endOfFile = false;
+		prevBlockNum = XYModem.NO_BLOCK;
+		file = null;
+		retries = 0;
+		expectHeader(now);
+	}
+
+	/**
+	 * Begin waiting for the next block header.
+	 * 
+	 * @param now Current time.
+	 */
+	private void expectHeader(long now) {
+		XYModem.debug("\nReading header...");
+		state = State.HEADER;
+		idleTimeout = 0;
+		deadline = now + (timer.headerTimeout(protocol.isStreaming) * 1000000L);
+	}
+
+	/**
+	 * Process the first byte of a block header.
+	 * 
+	 * @param ch Received byte.
+	 * @param now Current time.
+	 */
+	private void headerStart(int ch, long now) {
+		timer.headerStarted(now);
+		header[0] = (byte)ch;
+		if ((ch == XYModem.EOT) || (ch == XYModem.EOF)) {
+			XYModem.debug(" 0x%02x %s\n", ch, (ch == XYModem.EOT) ? "EOT" : "EOF");
+			endOfTransmission(now);
+			return;
+		}
+		if (ch == XYModem.CAN) {
+			XYModem.debug(" 0x%02x CAN", ch);
+			expect(State.HEADER_CAN, timer.deadline(1, now), now);
+			return;
+		}
+		if ((ch != XYModem.SOH) && (ch != XYModem.STX)) {
+			XYModem.debug(" 0x%02x INVALID\n", ch);
+			error("Invalid packet header (0x" + Integer.toHexString(header[0]) + ").", false, now);
+			return;
+		}
+		XYModem.debug(" 0x%02x %s:", ch, (ch == XYModem.SOH) ? "SOH" : "STX");
+		headerPos = 1;
+		expect(State.HEADER_REST, timer.deadline(2, now), now);
+	}
+
+	/**
+	 * Process a complete block header, and begin waiting for the block data.
+	 * 
+	 * @param now Current time.
+	 */
+	private void headerComplete(long now) {
+		XYModem.debug(" [0x%02x, 0x%02x].", header[1] & 0xFF, header[2] & 0xFF);
+		packetSize = (header[0] == XYModem.STX) ? 1024 : 128;
+		int num = header[1] & 0xFF;
+		if ((header[2] & 0xFF) != (255 - num)) {
+			error("Invalid block number (0x" + Integer.toHexString(header[1] & 0xFF) + ").", false, now);
+			return;
+		}
+		XYModem.debug(" Block %02x.", num);
+		blockNum = num;
+		if (!XYModem.validBlockNum(blockNum, prevBlockNum)) {
+			abort("Out of sequence block number (0x" + Integer.toHexString(blockNum) + ").", now);
+			return;
+		}
+		XYModem.debug(" Reading %d byte packet.", packetSize);
+		packet = (packetSize == 1024) ? longPacket : shortPacket;
+		packetPos = 0;
+		packetCRC = 0;
+		packetStart = now;
+		packetBuffered = 0;
+		expect(State.PACKET, timer.deadline(packetSize, now), now);
+	}
+
+	/**
+	 * Copy as much block data as is available into the packet, calculating
+	 * its CRC/checksum as it arrives.
+	 * 
+	 * @param data Received bytes.
+	 * @param now Current time.
+	 */
+	private void receivePacket(ByteBuffer data, long now) {
+		extendDeadline(now);
+		int count = Math.min(data.remaining(), packetSize - packetPos);
+		data.get(packet, packetPos, count);
+		if (protocol.isCRC) {
+			packetCRC = CRC16.update(packetCRC, packet, packetPos, count);
+		} else {
+			packetCRC = Checksum8.update(packetCRC, packet, packetPos, count);
+		}
+		packetPos += count;
+		if (now == packetStart) {
+			packetBuffered += count;
+		}
+		if (packetPos == packetSize) {
+			if (packetBuffered < packetSize) {
+				timer.packetReceived(packetSize - packetBuffered, now - packetStart);
+			}
+			crcSize = protocol.isCRC ? 2 : 1;
+			crcPos = 0;
+			XYModem.debug(protocol.isCRC ? " Reading CRC..." : " Reading checksum...");
+			expect(State.CRC, timer.deadline(crcSize, now), now);
+		}
+	}
+
+	/**
+	 * Verify the block CRC/checksum, and process the block.
+	 * 
+	 * @param now Current time.
+	 */
+	private void crcComplete(long now) {
+		if (!XYModem.checkCRC(packetCRC, crc, crcSize)) {
+			error("Invalid block CRC/checksum.", false, now);
+			return;
+		}
+		try {
+			if (prevBlockNum == XYModem.NO_BLOCK) {
+				if (blockNum == 0x00) {
+					protocol.setBatch(true);
+					Download download = XYModem.processBlock0(packet);
+					if (download == null) {
+						log("No more files to download.");
+						syncer.endBatch();
+						if (!protocol.isStreaming) {
+							send(XYModem.ACK, now);
+						}
+						done(now);
+						return;
+					}
+					file = new IncomingFile(download, overrunOption, paddingOption, tracker, start, sinkFactory, syncer, contentConsumer);
+					prevBlockNum = blockNum;
+					if (!protocol.isStreaming) {
+						queue(XYModem.ACK);
+					}
+					send(handshake, now);
+					retries = 0;
+					expectHeader(now);	// on to the next block (and file)
+					return;
+				} else if (blockNum == 0x01) {
+					protocol.setBatch(false);
+					file = new IncomingFile(new Download(null, false), overrunOption, paddingOption, tracker, start, sinkFactory, syncer, contentConsumer);
+					protocol.set1K(header[0] == XYModem.STX);
+				}
+			}
+			// only process the block if it's not a repeat
+			if ((prevBlockNum == XYModem.NO_BLOCK) || (blockNum != prevBlockNum)) {
+				file.write(packet, packetSize);
+				prevBlockNum = blockNum;
+				// a block after the first EOT means that EOT was not real
+				endOfFile = false;
+				file.checkSubscriber(protocol.isStreaming);
+				if (!protocol.isStreaming && !file.isDrained()) {
+					// a slow content subscriber holds back the ACK, to slow the sender
+					state = State.WAIT_DEMAND;
+					idleTimeout = 0;
+					demandStart = now;
+					deadline = now + DEMAND_POLL;
+					return;
+				}
+			}
+		} catch (IOException e) {
+			abort("Error writing file.", now);
+			return;
+		} catch (AbortDownloadException e) {
+			abort(e.getMessage(), now);
+			return;
+		}
+		if (!protocol.isStreaming) {
+			send(XYModem.ACK, now);
+		}
+		retries = 0;
+		expectHeader(now);	// on to the next block
+	}
+
+	/**
+	 * Check whether the content subscriber has taken the block, and ACK it if so.
+	 * 
+	 * @param now Current time.
+	 */
+	private void checkDemand(long now) {
+		try {
+			file.checkSubscriber(false);
+		} catch (AbortDownloadException e) {
+			abort(e.getMessage(), now);
+			return;
+		}
+		if (file.isDrained()) {
+			send(XYModem.ACK, now);
+			retries = 0;
+			expectHeader(now);	// on to the next block
+		} else if ((now - demandStart) >= ContentPublisher.DEMAND_TIMEOUT) {
+			abort("Content subscriber stalled.", now);
+		} else {
+			deadline = now + DEMAND_POLL;
+		}
+	}
+
+	/**
+	 * Process an EOT (or EOF) in place of a block header.
+	 * 
+	 * @param now Current time.
+	 */
+	private void endOfTransmission(long now) {
+		if (file == null) {
+			// No file is open, so this is a repeat of the previous file's EOT.
+			XYModem.debug("\nRepeated EOT.\n");
+			// the sender missed our ACK, so it also missed the handshake for the next file
+			queue(XYModem.ACK);
+			send(handshake, now);
+			nextAttempt(now);
+			return;
+		}
+		if (!endOfFile && !protocol.isStreaming) {
+			// make them send EOT twice, to make sure not glitched data
+			endOfFile = true;
+			// read in place of a header, so the sender is waiting for a reply, and there is nothing to purge
+			XYModem.debug("\nNAK: Doublecheck EOT.\n");
+			send(XYModem.NAK, now);
+			nextAttempt(now);
+			return;
+		}
+		try {
+			file.finish(now);
+			if (!protocol.isBatch) {
+				// the only file of the transfer
+				syncer.endBatch();
+			}
+		} catch (IOException e) {
+			abort("Error writing file.", now);
+			return;
+		}
+		file = null;
+		send(XYModem.ACK, now);
+		if (protocol.isBatch) {
+			// previous file ended with EOT and ACK, so the line is already clear
+			beginHandshake(now);
+		} else {
+			done(now);
+		}
+	}
+
+	/**
+	 * NAK the block, or abort if protocol.isStreaming.
+	 * 
+	 * @param message Reason for NAK/abort.
+	 * @param blockOver True if the line is known to be clear (error was a timeout).
+	 * @param now Current time.
+	 */
+	private void error(String message, boolean blockOver, long now) {
+		if (protocol.isStreaming) {
+			XYModem.debug("\nABORT: %s\n", message);
+			abort(message, now);
+			return;
+		}
+		nak(message, blockOver, now);
+	}
+
+	/**
+	 * Resynchronize with the sender as set by the ResyncOption, and NAK the block.
+	 * 
+	 * @param message Reason for NAK.
+	 * @param blockOver True if the line is known to be clear (error was a timeout).
+	 * @param now Current time.
+	 */
+	private void nak(String message, boolean blockOver, long now) {
+		XYModem.debug("\nNAK: %s\n", message);
+		resyncMessage = message;
+		if (resyncOption == ResyncOption.SCAN) {
+			if (blockOver) {
+				scanResyncCount++;
+				send(XYModem.NAK, now);
+				nextAttempt(now);
+				return;
+			}
+			scan0 = XYModem.TIMEOUT;
+			scan1 = XYModem.TIMEOUT;
+			startPurge(State.RESYNC_SCAN, SCAN_TIMEOUT, now);
+			return;
+		}
+		startPurge(State.RESYNC_PURGE, SECOND, now);
+	}
+
+	/**
+	 * Scan a byte for the header of the expected (or repeated) block.
+	 * 
+	 * @param ch Received byte.
+	 * @param now Current time.
+	 */
+	private void scan(int ch, long now) {
+		if (((scan0 == XYModem.SOH) || (scan0 == XYModem.STX)) && (ch == (255 - scan1))) {
+			boolean expected;
+			if (prevBlockNum == XYModem.NO_BLOCK) {
+				expected = (scan1 == 0x00) || (scan1 == 0x01);
+			} else {
+				expected = (scan1 == prevBlockNum) || (scan1 == ((prevBlockNum + 1) & 0xFF));
+			}
+			if (expected) {
+				// sender is already retransmitting, so pick up from its header
+				headerResyncCount++;
+				int b0 = scan0;
+				int b1 = scan1;
+				nextAttempt(now);
+				if (state == State.HEADER) {
+					receive(b0, now);
+					receive(b1, now);
+					receive(ch, now);
+				}
+				return;
+			}
+		}
+		scan0 = scan1;
+		scan1 = ch;
+		if (purgeLimitReached(now)) {
+			abort("No block header found after error.", now);
+		}
+	}
+
+	/**
+	 * Count an attempt at the current block, and wait for it again,
+	 * or abort if there have been too many attempts.
+	 * 
+	 * @param now Current time.
+	 */
+	private void nextAttempt(long now) {
+		retries++;
+		if (retries >= 10) {
+			abort("Too many errors.  Download aborted.", now);
+			return;
+		}
+		expectHeader(now);
+	}
+
+	/**
+	 * Cancel the download because of an error.
+	 * 
+	 * @param message Reason for cancellation.
+	 * @param now Current time.
+	 */
+	private void abort(String message, long now) {
+		cancel("Download cancelled: " + message, now);
+	}
+
+	/**
+	 * Cancel the download.
+	 * Waits for the line to clear before sending the full cancel sequence.
+	 * 
+	 * @param message Reason for cancellation.
+	 * @param now Current time.
+	 */
+	private void cancel(String message, long now) {
+		XYModem.debug("\nCANCEL: %s\n", message);
+		log(message);
+		cancelReason = message;
+		if (file != null) {
+			file.abort();
+			file = null;
+		}
+		if (protocol.isStreaming) {
+			// In YModem-g, the sender keeps transmitting until EOF without waiting for ACK.
+			// So we send a couple CAN before purge just to make sure it stops.
+			queue(XYModem.CAN);
+			send(XYModem.CAN, now);
+		}
+		can = 0;
+		bs = 0;
+		startPurge(State.CANCEL_PURGE, SECOND, now);
+	}
+
+	/**
+	 * Purge a byte while cancelling, watching for an echoed cancel sequence (8 CAN + 8 BS).
+	 * 
+	 * @param ch Received byte.
+	 * @param now Current time.
+	 */
+	private void cancelPurge(int ch, long now) {
+		if (can < XYModem.CAN_COUNT) {
+			// looking for CAN series
+			can = (ch == XYModem.CAN) ? can + 1 : 0;
+		} else if (bs < XYModem.CAN_COUNT) {
+			// looking for BS series
+			if (ch == XYModem.BS) {
+				bs++;
+			} else {
+				can = 0;
+				bs = 0;
+			}
+		} else {
+			// found echoed cancel sequence
+			finishCancel(now);
+			return;
+		}
+		if (purgeLimitReached(now)) {
+			finishCancel(now);
+		}
+	}
+
+	/**
+	 * Send the cancel sequence, and end the download.
+	 * 
+	 * @param now Current time.
+	 */
+	private void finishCancel(long now) {
+		// In YModem-g, we already sent 2 CANs...
+		int count = protocol.isStreaming ? XYModem.CAN_COUNT - 2 : XYModem.CAN_COUNT;
+		for (int i=0; i<count; i++) {
+			queue(XYModem.CAN);
+		}
+		for (int i=0; i<XYModem.CAN_COUNT; i++) {
+			queue(XYModem.BS);
+		}
+		done(now);
+	}
+
+	/**
+	 * End the download session, and complete its result.
+	 * 
+	 * @param now Current time.
+	 */
+	private void done(long now) {
+		state = State.DONE;
+		if (syncer != null) {
+			syncer.close();
+		}
+		result.complete(tracker.finish(protocol, cancelReason, now));
+	}
+
+	private void beginOutput() {
+		outputLength = 0;
+	}
+
+	private ByteBuffer endOutput() {
+		outputBuffer.clear();
+		outputBuffer.limit(outputLength);
+		return outputBuffer;
+	}
+
+	/**
+	 * Add a byte to the output.
+	 * 
+	 * @param ch Byte to transmit.
+	 */
+	private void queue(char ch) {
+		if (outputLength == output.length) {
+			output = Arrays.copyOf(output, output.length * 2);
+			outputBuffer = ByteBuffer.wrap(output);
+		}
+		output[outputLength++] = (byte)ch;
+	}
+
+	/**
+	 * Add the final byte of a response to the output.
+	 * 
+	 * @param ch Byte to transmit.
+	 * @param now Current time.
+	 */
+	private void send(char ch, long now) {
+		queue(ch);
+		timer.sent(now);
+	}
+
+	private void log(String message) {
+		XYModem.debug("\n%s\n", message);
+		listener.log(message);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs each XYModem.download() on its own thread from an ExecutorService.
+ * <p>
+ * By default, uses a virtual thread per download when running on Java 21
+ * or later, and a platform thread per download otherwise.
+ * 
+ * @author agent
+ */
+public class SessionRunner implements Closeable {
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * Create new instance of SessionRunner, using newThreadPerTaskExecutor().
+	 * The executor is shut down by close().
+	 */
+	public SessionRunner() {
+		this.executor = newThreadPerTaskExecutor();
+		this.ownExecutor = true;
+	}
+
+	/**
+	 * Create new instance of SessionRunner, using the given executor.
+	 * The executor is not shut down by close().
+	 * 
+	 * @param executor ExecutorService to run downloads on.
+	 */
+	public SessionRunner(ExecutorService executor) {
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	/**
+	 * Create an ExecutorService which starts a new thread for each task.
+	 * Threads are virtual if the runtime supports them (Java 21+).
+	 * 
+	 * @return New ExecutorService.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// no virtual threads before Java 21
+		}
+		return Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "xymodem-session");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Run a download.
+	 * 
+	 * @param handler IOHandler for the download.
+	 * @return Future which completes when the download is complete or cancelled.
+	 * Cancelling it with interruption interrupts the download thread.
+	 */
+	public Future<?> submit(IOHandler handler) {
+		return submit(handler, null);
+	}
+
+	/**
+	 * Run a download.
+	 * 
+	 * @param handler IOHandler for the download.
+	 * @param options Called with the XYModem instance before the download begins, to set its options (may be null).
+	 * @return Future which completes when the download is complete or cancelled.
+	 * Cancelling it with interruption interrupts the download thread.
+	 */
+	public Future<?> submit(IOHandler handler, Consumer<XYModem> options) {
+		return run(handler, options, null);
+	}
+
+	/**
+	 * Run a download over a connected socket, using a SocketIOHandler.
+	 * The socket is closed when the download is complete or cancelled.
+	 * 
+	 * @param socket Connected socket.
+	 * @param listener DownloadListener to receive logging, progress and received file events.
+	 * @param options Called with the XYModem instance before the download begins, to set its options (may be null).
+	 * @return Future which completes when the download is complete or cancelled.
+	 * @throws IOException If the socket's streams could not be opened.
+	 */
+	public Future<?> submit(Socket socket, DownloadListener listener, Consumer<XYModem> options) throws IOException {
+		return run(new SocketIOHandler(socket, listener), options, socket);
+	}
+
+	private Future<?> run(IOHandler handler, Consumer<XYModem> options, Closeable connection) {
+		return executor.submit(() -> {
+			active.incrementAndGet();
+			try {
+				XYModem xymodem = new XYModem(handler);
+				if (options != null) {
+					options.accept(xymodem);
+				}
+				xymodem.download();
+			} finally {
+				active.decrementAndGet();
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Number of downloads currently running.
+	 * 
+	 * @return Count of downloads started but not yet finished.
+	 */
+	public int getActiveSessions() {
+		return active.get();
+	}
+
+	/**
+	 * If the executor was created by this SessionRunner, shut it down,
+	 * interrupting any downloads still in progress.
+	 */
+	@Override
+	public void close() {
+		if (ownExecutor) {
+			executor.shutdownNow();
+		}
+	}
+}
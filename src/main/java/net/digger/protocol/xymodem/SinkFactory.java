@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+
+/**
+ * Creates the DownloadSink for each file of a download.
+ * 
+ * @author agent
+ * @see TempFileSinkFactory
+ */
+@FunctionalInterface
+public interface SinkFactory {
+	/**
+	 * Open the destination for a file.
+	 * <p>
+	 * The Download holds whatever the sender gave for the file (name, length, etc.).
+	 * Its file is null; a factory which stores the content in a local file should set it,
+	 * so it is available to DownloadListener.received().
+	 * 
+	 * @param download Details of the file to receive.
+	 * @return Sink for the file's content.
+	 * @throws IOException If the destination could not be opened.
+	 */
+	public DownloadSink open(Download download) throws IOException;
+}
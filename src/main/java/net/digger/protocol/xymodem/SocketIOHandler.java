@@ -0,0 +1,174 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * IOHandler for downloading over a connected Socket, with XYModem.download().
+ * <p>
+ * Reads use the Socket's read timeout, and hold no locks while blocked,
+ * so it is suitable for running on virtual threads.
+ * Events are passed on to a DownloadListener.
+ * <p>
+ * If the connection fails or is closed by the sender, or the thread is
+ * interrupted, reads throw UserCancelException, which ends the download.
+ * 
+ * @author agent
+ */
+public class SocketIOHandler implements IOHandler {
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final DownloadListener listener;
+	private int soTimeout = -1;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Create new instance of SocketIOHandler.
+	 * 
+	 * @param socket Connected socket to download over.
+	 * @param listener DownloadListener to receive logging, progress and received file events.
+	 * @throws IOException If the socket's streams could not be opened.
+	 */
+	public SocketIOHandler(Socket socket, DownloadListener listener) throws IOException {
+		this.socket = socket;
+		this.in = socket.getInputStream();
+		this.out = socket.getOutputStream();
+		this.listener = listener;
+	}
+
+	/**
+	 * Cancel the download, as if the user cancelled it.
+	 * Takes effect at the next read, or when the current read times out.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	@Override
+	public Byte read(int msTimeout) throws UserCancelException {
+		int b = readByte(msTimeout);
+		return (b < 0) ? null : (byte)b;
+	}
+
+	@Override
+	public int readByte(int msTimeout) throws UserCancelException {
+		checkCancel();
+		try {
+			setTimeout(msTimeout);
+			int b = in.read();
+			if (b < 0) {
+				// connection closed
+				throw new UserCancelException();
+			}
+			return b;
+		} catch (SocketTimeoutException e) {
+			return -1;
+		} catch (IOException e) {
+			throw new UserCancelException();
+		}
+	}
+
+	@Override
+	public int read(byte[] dst, int off, int len, int msTimeout) throws UserCancelException {
+		if (len <= 0) {
+			return 0;
+		}
+		checkCancel();
+		try {
+			setTimeout(msTimeout);
+			// blocks for the first byte only, then returns what's available
+			int count = in.read(dst, off, len);
+			if (count < 0) {
+				// connection closed
+				throw new UserCancelException();
+			}
+			return count;
+		} catch (SocketTimeoutException e) {
+			return 0;
+		} catch (IOException e) {
+			throw new UserCancelException();
+		}
+	}
+
+	@Override
+	public void write(char ch) {
+		try {
+			out.write(ch);
+		} catch (IOException e) {
+			// next read will fail and end the download
+		}
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		try {
+			out.write(buf, off, len);
+		} catch (IOException e) {
+			// next read will fail and end the download
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			// next read will fail and end the download
+		}
+	}
+
+	@Override
+	public void log(String message) {
+		listener.log(message);
+	}
+
+	@Override
+	public void progress(long bytes, long total) {
+		listener.progress(bytes, total);
+	}
+
+	@Override
+	public void started(Download download) {
+		listener.started(download);
+	}
+
+	@Override
+	public void received(Download download) {
+		listener.received(download);
+	}
+
+	private void checkCancel() throws UserCancelException {
+		if (cancelled || Thread.currentThread().isInterrupted()) {
+			throw new UserCancelException();
+		}
+	}
+
+	private void setTimeout(int msTimeout) throws IOException {
+		// Socket treats 0 as no timeout; we want an immediate timeout.
+		int timeout = Math.max(1, msTimeout);
+		if (timeout != soTimeout) {
+			socket.setSoTimeout(timeout);
+			soTimeout = timeout;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * Default SinkFactory, which writes each file to the temp directory,
+ * using the name given by the sender where possible.
+ * 
+ * @author agent
+ */
+public class TempFileSinkFactory implements SinkFactory {
+	private final boolean preallocate;
+
+	/**
+	 * Create new instance of TempFileSinkFactory.
+	 */
+	public TempFileSinkFactory() {
+		this(false);
+	}
+
+	/**
+	 * Create new instance of TempFileSinkFactory.
+	 * 
+	 * @param preallocate True to extend each file to its declared length before writing (see FileSink).
+	 */
+	public TempFileSinkFactory(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+
+	@Override
+	public DownloadSink open(Download download) throws IOException {
+		// the file is claimed by the open which writes it
+		FileChannel channel = download.openFile();
+		try {
+			return new FileSink(download, channel, preallocate);
+		} catch (IOException e) {
+			Files.deleteIfExists(download.file);
+			throw e;
+		}
+	}
+}
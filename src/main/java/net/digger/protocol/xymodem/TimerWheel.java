@@ -0,0 +1,296 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel, for the protocol timeouts of many downloads sharing one thread.
+ * <p>
+ * Time is divided into ticks of a fixed resolution, and each timer is kept in
+ * the bucket for its tick, modulo the number of buckets.  Arming, re-arming and
+ * cancelling a timer are O(1).  Timers never fire early, and fire at most one
+ * tick late (plus however late expire() is called).
+ * <p>
+ * A TimerWheel is not thread-safe; it should only be used from one thread, such
+ * as an event loop.  Times are System.nanoTime() values.
+ * 
+ * @author agent
+ * @param <T> Type of object each timer belongs to.
+ */
+public class TimerWheel<T> {
+	/**
+	 * Timer states.
+	 */
+	private enum State {
+		IDLE,		// not armed
+		ARMED,		// in a bucket
+		EXPIRED		// removed from its bucket by expire(), not yet fired
+	}
+
+	/**
+	 * A timer, which can be armed repeatedly.
+	 * 
+	 * @param <T> Type of object the timer belongs to.
+	 */
+	public static final class Timer<T> {
+		private final T owner;
+		private State state = State.IDLE;
+		private long deadline = 0;
+		private long tick = 0;
+		private int bucket = -1;
+		private Timer<T> prev = null;
+		private Timer<T> next = null;
+		private Timer<T> nextExpired = null;
+
+		private Timer(T owner) {
+			this.owner = owner;
+		}
+
+		/**
+		 * @return Object this timer belongs to.
+		 */
+		public T getOwner() {
+			return owner;
+		}
+
+		/**
+		 * @return True if the timer is armed and has not yet fired.
+		 */
+		public boolean isArmed() {
+			return state != State.IDLE;
+		}
+
+		/**
+		 * @return Time the timer was last armed to fire at.
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	private final long resolution;
+	private final Timer<T>[] buckets;
+	private final int[] occupancy;
+	private final int mask;
+	private final long origin;
+	private long currentTick = 0;		// next tick to be processed
+	private int size = 0;
+	private long expiredCount = 0;
+
+	/**
+	 * Create new instance of TimerWheel.
+	 * 
+	 * @param bucketCount Number of buckets (rounded up to a power of 2).
+	 * @param resolution Length of each tick, in nanoseconds.
+	 * @param now Current time.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(int bucketCount, long resolution, long now) {
+		if ((bucketCount < 1) || (bucketCount > (1 << 30))) {
+			throw new IllegalArgumentException("bucketCount must be between 1 and 2^30.");
+		}
+		if (resolution < 1) {
+			throw new IllegalArgumentException("resolution must be positive.");
+		}
+		int count = Integer.highestOneBit(bucketCount);
+		if (count < bucketCount) {
+			count <<= 1;
+		}
+		this.resolution = resolution;
+		this.buckets = (Timer<T>[])new Timer<?>[count];
+		this.occupancy = new int[count];
+		this.mask = count - 1;
+		this.origin = now;
+	}
+
+	/**
+	 * Create a timer belonging to the given object.  It is not armed.
+	 * 
+	 * @param owner Object passed to the expire() action when the timer fires.
+	 * @return New timer.
+	 */
+	public Timer<T> newTimer(T owner) {
+		return new Timer<>(owner);
+	}
+
+	/**
+	 * Arm the timer to fire at the given time, replacing any previous deadline.
+	 * 
+	 * @param timer Timer to arm.
+	 * @param deadline Time to fire at.
+	 */
+	public void schedule(Timer<T> timer, long deadline) {
+		if (timer.state == State.ARMED) {
+			unlink(timer);
+		}
+		long elapsed = deadline - origin;
+		// round up, so the timer never fires early
+		long tick = (elapsed <= 0) ? 0 : ((elapsed - 1) / resolution) + 1;
+		if (tick < currentTick) {
+			tick = currentTick;
+		}
+		timer.deadline = deadline;
+		timer.tick = tick;
+		timer.bucket = (int)(tick & mask);
+		timer.prev = null;
+		timer.next = buckets[timer.bucket];
+		if (timer.next != null) {
+			timer.next.prev = timer;
+		}
+		buckets[timer.bucket] = timer;
+		occupancy[timer.bucket]++;
+		timer.state = State.ARMED;
+		size++;
+	}
+
+	/**
+	 * Disarm the timer.  Does nothing if it isn't armed.
+	 * 
+	 * @param timer Timer to disarm.
+	 */
+	public void cancel(Timer<T> timer) {
+		if (timer.state == State.ARMED) {
+			unlink(timer);
+		}
+		timer.state = State.IDLE;
+	}
+
+	/**
+	 * Fire all timers whose deadlines have passed.
+	 * The action may arm or cancel any timer, including the one firing.
+	 * 
+	 * @param now Current time.
+	 * @param action Called with the owner of each timer that fires.
+	 * @return Number of timers fired.
+	 */
+	public int expire(long now, Consumer<T> action) {
+		long elapsed = now - origin;
+		if (elapsed < 0) {
+			return 0;
+		}
+		long targetTick = elapsed / resolution;
+		if (targetTick < currentTick) {
+			return 0;
+		}
+		// collect first, so the action can't disturb the buckets being walked
+		Timer<T> expired = null;
+		long ticks = Math.min(targetTick - currentTick + 1, buckets.length);
+		for (long i=0; i<ticks; i++) {
+			int bucket = (int)((currentTick + i) & mask);
+			Timer<T> timer = buckets[bucket];
+			while (timer != null) {
+				Timer<T> next = timer.next;
+				if (timer.tick <= targetTick) {
+					unlink(timer);
+					timer.state = State.EXPIRED;
+					timer.nextExpired = expired;
+					expired = timer;
+				}
+				timer = next;
+			}
+		}
+		currentTick = targetTick + 1;
+		int count = 0;
+		while (expired != null) {
+			Timer<T> timer = expired;
+			expired = timer.nextExpired;
+			timer.nextExpired = null;
+			// skip any timer re-armed or cancelled by an earlier action
+			if (timer.state == State.EXPIRED) {
+				timer.state = State.IDLE;
+				count++;
+				action.accept(timer.owner);
+			}
+		}
+		expiredCount += count;
+		return count;
+	}
+
+	/**
+	 * Time at which expire() should next be called, if any timers are armed.
+	 * 
+	 * @return Start of the next unprocessed tick, or Long.MAX_VALUE if no timers are armed.
+	 */
+	public long getNextTick() {
+		return (size == 0) ? Long.MAX_VALUE : origin + (currentTick * resolution);
+	}
+
+	/**
+	 * @return Length of each tick, in nanoseconds.
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @return Number of buckets.
+	 */
+	public int getBucketCount() {
+		return buckets.length;
+	}
+
+	/**
+	 * @return Number of armed timers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of timers fired since this instance was created.
+	 */
+	public long getExpiredCount() {
+		return expiredCount;
+	}
+
+	/**
+	 * Largest number of timers in a single bucket, which bounds the work of one tick.
+	 * 
+	 * @return Maximum bucket occupancy.
+	 */
+	public int getMaxOccupancy() {
+		int max = 0;
+		for (int count : occupancy) {
+			if (count > max) {
+				max = count;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Remove an armed timer from its bucket.
+	 * 
+	 * @param timer Timer to remove.
+	 */
+	private void unlink(Timer<T> timer) {
+		if (timer.prev != null) {
+			timer.prev.next = timer.next;
+		} else {
+			buckets[timer.bucket] = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.prev = null;
+		timer.next = null;
+		occupancy[timer.bucket]--;
+		timer.bucket = -1;
+		size--;
+	}
+}
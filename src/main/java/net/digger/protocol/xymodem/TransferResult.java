@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Encapsulates the outcome of a download session, which may include several files.
+ * 
+ * @author agent
+ */
+public class TransferResult {
+	/**
+	 * Files successfully downloaded, in order received.
+	 * Not empty if the session was cancelled after one or more files of a batch.
+	 */
+	public final List<Download> downloads;
+	/**
+	 * Protocol negotiated with the sender.
+	 * Null if the protocol was not confirmed (for example, if the handshake timed out).
+	 */
+	public final Protocol protocol;
+	/**
+	 * Total size of the successfully downloaded files.
+	 */
+	public final long bytes;
+	/**
+	 * Time from start of handshake to end of session.
+	 */
+	public final Duration elapsed;
+	/**
+	 * Reason the session was cancelled, as logged.
+	 * Null if the session completed.
+	 */
+	public final String cancelReason;
+
+	TransferResult(List<Download> downloads, Protocol protocol, long bytes, Duration elapsed, String cancelReason) {
+		this.downloads = downloads;
+		this.protocol = protocol;
+		this.bytes = bytes;
+		this.elapsed = elapsed;
+		this.cancelReason = cancelReason;
+	}
+
+	/**
+	 * Indicates whether the session ended normally, rather than being cancelled.
+	 * 
+	 * @return True if not cancelled.
+	 */
+	public boolean isComplete() {
+		return cancelReason == null;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Passes events on to the application's DownloadListener, while collecting
+ * the TransferResult of a session and completing its per-file futures.
+ * Shared by the blocking (XYModem) and push (Receiver) engines.
+ * 
+ * @author agent
+ */
+class TransferTracker implements DownloadListener {
+	private final DownloadListener listener;
+	private final Consumer<CompletableFuture<Download>> fileConsumer;
+	private long start = 0;
+	private final List<Download> downloads = new ArrayList<>();
+	private CompletableFuture<Download> current = null;
+	private long fileBytes = 0;
+	private long bytes = 0;
+
+	/**
+	 * Create a new TransferTracker.
+	 * 
+	 * @param listener Application's DownloadListener.
+	 * @param fileConsumer Given a future for each file as it starts (may be null).
+	 */
+	public TransferTracker(DownloadListener listener, Consumer<CompletableFuture<Download>> fileConsumer) {
+		this.listener = listener;
+		this.fileConsumer = fileConsumer;
+	}
+
+	/**
+	 * Record the start of the session.
+	 * 
+	 * @param now Current time (System.nanoTime(), or the caller's clock).
+	 */
+	public void start(long now) {
+		start = now;
+	}
+
+	@Override
+	public void log(String message) {
+		listener.log(message);
+	}
+
+	@Override
+	public void progress(long bytes, long total) {
+		fileBytes = bytes;
+		listener.progress(bytes, total);
+	}
+
+	@Override
+	public void started(Download download) {
+		fileBytes = 0;
+		if (fileConsumer != null) {
+			current = new CompletableFuture<>();
+			fileConsumer.accept(current);
+		}
+		listener.started(download);
+	}
+
+	@Override
+	public void received(Download download) {
+		downloads.add(download);
+		bytes += fileBytes;
+		listener.received(download);
+		if (current != null) {
+			current.complete(download);
+			current = null;
+		}
+	}
+
+	/**
+	 * End the session, failing the future of any file still in progress.
+	 * 
+	 * @param protocol Protocol detector for the session.
+	 * @param cancelReason Reason session was cancelled, or null if it completed.
+	 * @param now Current time, on the same clock as given to start().
+	 * @return Result of the session.
+	 */
+	public TransferResult finish(ProtocolDetector protocol, String cancelReason, long now) {
+		if (current != null) {
+			current.completeExceptionally(new AbortDownloadException(
+					(cancelReason != null) ? cancelReason : "Download ended before file was complete."));
+			current = null;
+		}
+		return new TransferResult(Collections.unmodifiableList(new ArrayList<>(downloads)),
+				protocol.getProtocol(), bytes, Duration.ofNanos(now - start), cancelReason);
+	}
+}
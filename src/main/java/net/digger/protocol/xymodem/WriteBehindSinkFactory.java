@@ -0,0 +1,425 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SinkFactory which moves the storage of each file off the download's thread,
+ * so disk latency doesn't delay ACKs, or reading a YModem-G stream.
+ * <p>
+ * Wraps another SinkFactory.  Each verified block is copied into a queue, bounded
+ * per file, and written to the wrapped sink by a storage thread.  Blocks are copied
+ * into buffers from a pool shared by all files, which the storage thread returns to
+ * the pool once written, so a download allocates nothing per block.  Blocks of one file
+ * are stored in order; files are stored in parallel if the executor has several
+ * threads.  commit() is a barrier: it waits until everything queued has been stored
+ * and the wrapped sink committed, so the file is complete before
+ * DownloadListener.received() is called.  sync() is also queued, and waited for.
+ * <p>
+ * An error storing a block is reported by the next call for that file.  Once the
+ * factory is closed, or its executor shut down, any further call for a file not
+ * already being stored throws an IOException.
+ * 
+ * @author agent
+ */
+public class WriteBehindSinkFactory implements SinkFactory, Closeable {
+	/**
+	 * Default most bytes to queue for one file, before the download's thread waits.
+	 */
+	public static final int DEFAULT_QUEUE_LIMIT = 1 << 20;
+	/**
+	 * Size of the pooled buffers, enough for a 1K block.  Larger writes get a buffer of their own.
+	 */
+	static final int BUFFER_SIZE = 1024;
+
+	private final SinkFactory delegate;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final int queueLimit;
+	private final ArrayBlockingQueue<ByteBuffer> pool;
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong totalWriteLatency = new AtomicLong();
+	private final AtomicLong maxWriteLatency = new AtomicLong();
+
+	/**
+	 * Create new instance of WriteBehindSinkFactory, with one storage thread
+	 * and the default queue limit.  The thread is stopped by close().
+	 * 
+	 * @param delegate SinkFactory which stores the files.
+	 */
+	public WriteBehindSinkFactory(SinkFactory delegate) {
+		this(delegate, Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "xymodem-storage");
+			thread.setDaemon(true);
+			return thread;
+		}), true, DEFAULT_QUEUE_LIMIT);
+	}
+
+	/**
+	 * Create new instance of WriteBehindSinkFactory, with the given storage threads.
+	 * The executor is not shut down by close().
+	 * 
+	 * @param delegate SinkFactory which stores the files.
+	 * @param executor ExecutorService to run storage on.
+	 * @param queueLimit Most bytes of buffer to queue for one file, before the download's thread waits.
+	 */
+	public WriteBehindSinkFactory(SinkFactory delegate, ExecutorService executor, int queueLimit) {
+		this(delegate, executor, false, queueLimit);
+	}
+
+	private WriteBehindSinkFactory(SinkFactory delegate, ExecutorService executor, boolean ownExecutor, int queueLimit) {
+		if (queueLimit < 1024) {
+			throw new IllegalArgumentException("queueLimit must be at least 1024 bytes.");
+		}
+		this.delegate = delegate;
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+		this.queueLimit = queueLimit;
+		// the most one file can have queued; more files at once allocate buffers past this
+		this.pool = new ArrayBlockingQueue<>(queueLimit / BUFFER_SIZE);
+	}
+
+	@Override
+	public DownloadSink open(Download download) throws IOException {
+		return new WriteBehindSink(delegate.open(download));
+	}
+
+	/**
+	 * @return Number of storage operations queued or running, for all files.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * @return Number of bytes queued and not yet stored, for all files.
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	/**
+	 * @return Number of blocks stored.
+	 */
+	public long getWriteCount() {
+		return writeCount.get();
+	}
+
+	/**
+	 * @return Average nanoseconds taken by the wrapped sink to store a block.
+	 */
+	public long getAverageWriteLatency() {
+		long count = writeCount.get();
+		return (count == 0) ? 0 : totalWriteLatency.get() / count;
+	}
+
+	/**
+	 * @return Most nanoseconds taken by the wrapped sink to store a block.
+	 */
+	public long getMaxWriteLatency() {
+		return maxWriteLatency.get();
+	}
+
+	/**
+	 * If the storage thread was created by this factory, stop it once the queue is empty.
+	 */
+	@Override
+	public void close() {
+		if (ownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Storage operation on the wrapped sink.
+	 */
+	@FunctionalInterface
+	private static interface Operation {
+		public void run(DownloadSink sink) throws IOException;
+	}
+
+	/**
+	 * Queues the operations for one file, and runs them in order on the executor.
+	 */
+	private final class WriteBehindSink implements DownloadSink {
+		private final DownloadSink sink;
+		private final Semaphore space = new Semaphore(queueLimit);
+		private final ReentrantLock lock = new ReentrantLock();
+		// blocks to store, or operations; sized for as many blocks as the space allows, so it doesn't grow
+		private final ArrayDeque<Object> queue = new ArrayDeque<>(queueLimit / BUFFER_SIZE + 4);
+		private final Runnable drainer = this::drain;
+		private boolean running = false;		// a drain task is on the executor
+		private volatile IOException failure = null;
+
+		public WriteBehindSink(DownloadSink sink) {
+			this.sink = sink;
+		}
+
+		@Override
+		public void write(ByteBuffer data) throws IOException {
+			checkFailure();
+			int size = data.remaining();
+			int capacity = Math.max(size, BUFFER_SIZE);
+			// a pooled buffer is charged in full, so the limit bounds the memory held
+			int permits = permits(capacity);
+			try {
+				space.acquire(permits);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for storage queue.");
+			}
+			ByteBuffer copy = (capacity == BUFFER_SIZE) ? pool.poll() : null;
+			if (copy == null) {
+				copy = ByteBuffer.allocate(capacity);
+			}
+			copy.clear();
+			copy.put(data);
+			copy.flip();
+			queuedBytes.addAndGet(size);
+			queueDepth.incrementAndGet();
+			try {
+				enqueue(copy);
+			} catch (IOException e) {
+				release(copy, size);
+				throw e;
+			}
+		}
+
+		@Override
+		public void truncate(long length) throws IOException {
+			checkFailure();
+			submit(s -> s.truncate(length), null);
+		}
+
+		@Override
+		public void commit() throws IOException {
+			await(DownloadSink::commit);
+		}
+
+		@Override
+		public void sync() throws IOException {
+			await(DownloadSink::sync);
+		}
+
+		@Override
+		public void abort() {
+			Runnable task = () -> {
+				try {
+					sink.abort();
+				} finally {
+					queueDepth.decrementAndGet();
+				}
+			};
+			queueDepth.incrementAndGet();
+			try {
+				enqueue(task);
+			} catch (IOException e) {
+				// nothing is queued for this file, so abort it here instead
+				queueDepth.decrementAndGet();
+				sink.abort();
+			}
+		}
+
+		/**
+		 * Queue an operation, and wait until it and everything queued before it is done.
+		 * 
+		 * @param operation Operation to queue.
+		 * @throws IOException If error queueing the operation, or running it or anything queued before it.
+		 */
+		private void await(Operation operation) throws IOException {
+			checkFailure();
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			submit(s -> {
+				try {
+					operation.run(s);
+					done.complete(null);
+				} catch (IOException e) {
+					done.completeExceptionally(e);
+					throw e;
+				}
+			}, done);
+			try {
+				done.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for storage to complete.");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw (cause instanceof IOException) ? (IOException)cause : new IOException(cause);
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		/**
+		 * Queue an operation, which is skipped if an earlier one failed.
+		 * 
+		 * @param operation Operation to queue.
+		 * @param barrier Future to fail if the operation is skipped (may be null).
+		 * @throws IOException If the operation can't be queued.
+		 */
+		private void submit(Operation operation, CompletableFuture<Void> barrier) throws IOException {
+			Runnable task = () -> {
+				try {
+					if (failure == null) {
+						operation.run(sink);
+					} else if (barrier != null) {
+						barrier.completeExceptionally(failure);
+					}
+				} catch (IOException e) {
+					failure = e;
+				} catch (RuntimeException e) {
+					failure = new IOException(e);
+					if (barrier != null) {
+						barrier.completeExceptionally(failure);
+					}
+				} finally {
+					queueDepth.decrementAndGet();
+				}
+			};
+			queueDepth.incrementAndGet();
+			try {
+				enqueue(task);
+			} catch (IOException e) {
+				queueDepth.decrementAndGet();
+				throw e;
+			}
+		}
+
+		/**
+		 * Store a queued block, unless an earlier operation failed, then recycle its buffer.
+		 * 
+		 * @param block Copy of the block, from write().
+		 */
+		private void store(ByteBuffer block) {
+			int size = block.remaining();
+			try {
+				if (failure == null) {
+					long start = System.nanoTime();
+					sink.write(block);
+					long latency = System.nanoTime() - start;
+					writeCount.incrementAndGet();
+					totalWriteLatency.addAndGet(latency);
+					maxWriteLatency.accumulateAndGet(latency, Math::max);
+				}
+			} catch (IOException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = new IOException(e);
+			} finally {
+				release(block, size);
+			}
+		}
+
+		/**
+		 * Free the queue space taken by a block, and return its buffer to the pool.
+		 * 
+		 * @param block Copy of the block, from write().
+		 * @param size Number of bytes in the block.
+		 */
+		private void release(ByteBuffer block, int size) {
+			queuedBytes.addAndGet(-size);
+			// back in the pool before the space is freed, so a write waiting for space finds it
+			if (block.capacity() == BUFFER_SIZE) {
+				pool.offer(block);
+			}
+			space.release(permits(block.capacity()));
+			queueDepth.decrementAndGet();
+		}
+
+		private int permits(int capacity) {
+			return Math.min(capacity, queueLimit);
+		}
+
+		/**
+		 * Add a task or block to the queue, and start draining it if not already running.
+		 * 
+		 * @param task Runnable to run, or ByteBuffer to store.
+		 * @throws IOException If the executor is shut down, in which case the task is not queued.
+		 */
+		private void enqueue(Object task) throws IOException {
+			lock.lock();
+			try {
+				queue.add(task);
+				if (running) {
+					return;
+				}
+				running = true;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				executor.execute(drainer);
+			} catch (RejectedExecutionException e) {
+				lock.lock();
+				try {
+					// not running, so the queue held nothing before this task
+					queue.clear();
+					running = false;
+				} finally {
+					lock.unlock();
+				}
+				throw new IOException("Storage executor is closed.", e);
+			}
+		}
+
+		/**
+		 * Run queued operations until the queue is empty.
+		 */
+		private void drain() {
+			while (true) {
+				Object task;
+				lock.lock();
+				try {
+					task = queue.poll();
+					if (task == null) {
+						running = false;
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+				if (task instanceof ByteBuffer) {
+					store((ByteBuffer)task);
+				} else {
+					((Runnable)task).run();
+				}
+			}
+		}
+	}
+}
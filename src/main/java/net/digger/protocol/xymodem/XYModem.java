@@ -17,17 +17,12 @@
 package net.digger.protocol.xymodem;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
-import net.digger.util.crc.CRC;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Implementation of client side of XModem and YModem protocols,
@@ -77,18 +72,92 @@ public class XYModem {
 		 */
 		MIXED
 	};
+	/**
+	 * Behavior options for the padding of the last block of a downloaded file, when
+	 * file length is not provided by sender (XModem, or YModem without a length).
+	 * The sender pads the last block with CPMEOF (^Z, 0x1A) characters.
+	 * <p>
+	 * To trim the padding, each block is held back until the next one arrives, so that
+	 * the last block can be trimmed before it is stored.
+	 */
+	public enum PaddingOption {
+		/**
+		 * Default setting.
+		 * Keep the padding.  Files are a multiple of the block size.
+		 */
+		OFF,
+		/**
+		 * Trim the run of 0x1A bytes which ends the last block.  0x1A bytes
+		 * before the run are kept, but a file whose own data ends with 0x1A bytes
+		 * loses them, as they can't be told apart from padding.
+		 */
+		BINARY_SAFE,
+		/**
+		 * Trim the last block at its first 0x1A byte, the end of file marker for
+		 * CP/M text files.  Only for text files.
+		 */
+		TEXT
+	};
+	/**
+	 * Strategies for getting back in sync with the sender before NAKing a bad block.
+	 */
+	public enum ResyncOption {
+		/**
+		 * Default setting.
+		 * Wait for the line to be silent for a full second before sending NAK,
+		 * as the X/YModem spec describes.
+		 * On a noisy line with a fast sender, the line may take a long time to clear.
+		 */
+		PURGE,
+		/**
+		 * Send NAK immediately when the bad block is already known to be over
+		 * (after a timeout), otherwise wait only for a short gap in the data.
+		 * While waiting, scan the incoming data for the header of the expected
+		 * (or repeated) block, and if one is found, resume from it without a NAK.
+		 */
+		SCAN
+	};
+	/**
+	 * How received files are made durable (synced to the storage device) before the
+	 * sender is told they were delivered.  Syncing is done through DownloadSink.sync().
+	 */
+	public enum DurabilityOption {
+		/**
+		 * Default setting.
+		 * Never sync; files are written back whenever the operating system chooses.
+		 * A crash or power loss soon after a download can lose files the sender
+		 * believes were delivered.
+		 */
+		NONE,
+		/**
+		 * Sync each file as it is completed, before it is passed to received() and its
+		 * EOT is ACKed.  Safest, but each file waits for the storage device.
+		 */
+		FILE,
+		/**
+		 * Sync all files of a batch together, before the null pathname which ends the
+		 * batch is ACKed (or the EOT of an XModem file).  Files are passed to received()
+		 * before they are synced.  If the download is cancelled, the files already
+		 * received are still synced.
+		 */
+		BATCH
+	};
 	private static final boolean DEBUG = false;
-	private static final int CAN_COUNT = 8;
+	static final int CAN_COUNT = 8;
+	static final int TIMEOUT = -1;		// readData() result if timed out
+	static final int NO_BLOCK = -1;		// block number before first block received
+	static final int PURGE_GAP = 1000;	// ms of silence which means the line is clear
+	static final int SCAN_TIMEOUT = 250;	// gap which ends a bad block in ResyncOption.SCAN
 	
 	// X/YModem characters
-	private static final char SOH = 0x01;	// Start 128-byte block header
-	private static final char STX = 0x02;	// Start 1024-byte block header
-	private static final char EOT = 0x04;	// File transfer complete
-	private static final char ACK = 0x06;	// Data received ok
-	private static final char BS  = 0x08;	// Backspace
-	private static final char NAK = 0x15;	// Error receiving data
-	private static final char CAN = 0x18;	// Cancel download
-	private static final char EOF = 0x1A;	// Padding for extra block space and File transfer complete (alternate)
+	static final char SOH = 0x01;	// Start 128-byte block header
+	static final char STX = 0x02;	// Start 1024-byte block header
+	static final char EOT = 0x04;	// File transfer complete
+	static final char ACK = 0x06;	// Data received ok
+	static final char BS  = 0x08;	// Backspace
+	static final char NAK = 0x15;	// Error receiving data
+	static final char CAN = 0x18;	// Cancel download
+	static final char EOF = 0x1A;	// Padding for extra block space and File transfer complete (alternate)
 
 	// ZModem characters
 	private static final char CR  = 0x0D;	// Carriage return
@@ -116,11 +185,39 @@ public class XYModem {
 	};
 
 	private final IOHandler io;
-	private Character waitingData = null;
+	private final byte[] purgeBuffer = new byte[1024];
+	// per-session block buffers, reused for every block
+	private final byte[] headerBuffer = new byte[3];
+	private final byte[] shortPacket = new byte[128];
+	private final byte[] longPacket = new byte[1024];
+	private final byte[] crcBuffer = new byte[2];
+	// pending response, sent with a single write (largest is the cancel sequence)
+	private final byte[] responseBuffer = new byte[CAN_COUNT * 2];
+	private int responseLength = 0;
+	// bytes read ahead and not yet consumed (waiting handshake response, or a resync header)
+	private final byte[] pending = new byte[3];
+	private int pendingStart = 0;
+	private int pendingEnd = 0;
+	private int prevBlockNum = NO_BLOCK;
 	private ProtocolDetector protocol;
+	private TransferTracker tracker;
+	private Consumer<CompletableFuture<Download>> fileConsumer = null;
+	private BiConsumer<Download, ContentFlow.Publisher<ByteBuffer>> contentConsumer = null;
+	private SinkFactory sinkFactory = new TempFileSinkFactory();
+	private DurabilityOption durabilityOption = DurabilityOption.NONE;
+	private FileSyncer syncer;
+	private String cancelReason = null;
+	private LinkTimer timer = new LinkTimer();
 	private Character handshake = null;
 	private int autoDownloadIndex = 0;
 	private OverrunOption overrunOption = OverrunOption.MIXED;
+	private PaddingOption paddingOption = PaddingOption.OFF;
+	private ResyncOption resyncOption = ResyncOption.PURGE;
+	private int purgeTimeLimit = 60000;
+	private long purgeByteLimit = 65536;
+	private long purgeResyncCount = 0;
+	private long scanResyncCount = 0;
+	private long headerResyncCount = 0;
 	
 	/**
 	 * Create new instance of XYModem.
@@ -135,6 +232,127 @@ public class XYModem {
 		this.overrunOption = option;
 	}
 	
+	/**
+	 * Set how the padding of the last block is handled, for files sent without a
+	 * length (XModem, or YModem without a length).
+	 * 
+	 * @param option Padding behavior (default PaddingOption.OFF).
+	 */
+	public void setPaddingOption(PaddingOption option) {
+		this.paddingOption = option;
+	}
+	
+	/**
+	 * Set a consumer to be given a future for each file, as its download begins.
+	 * The future completes with the Download when the file has been received,
+	 * or exceptionally with AbortDownloadException if the download is cancelled first.
+	 * 
+	 * @param consumer Consumer of file futures (null for none).
+	 */
+	public void setFileConsumer(Consumer<CompletableFuture<Download>> consumer) {
+		this.fileConsumer = consumer;
+	}
+	
+	/**
+	 * Set the factory which opens the destination for each file's content.
+	 * <p>
+	 * The default, TempFileSinkFactory, writes each file to the temp directory.
+	 * Other factories can write straight to a storage layer, an open FileChannel,
+	 * memory, etc.  Not used while a content consumer is set.
+	 * 
+	 * @param factory SinkFactory to use (default TempFileSinkFactory).
+	 */
+	public void setSinkFactory(SinkFactory factory) {
+		this.sinkFactory = factory;
+	}
+	
+	/**
+	 * Set how received files are made durable before the sender is told they were delivered.
+	 * Not used while a content consumer is set.
+	 * 
+	 * @param option Durability policy (default DurabilityOption.NONE).
+	 */
+	public void setDurabilityOption(DurabilityOption option) {
+		this.durabilityOption = option;
+	}
+	
+	/**
+	 * Set a consumer to receive the content of each file, instead of writing it to a local file.
+	 * <p>
+	 * As each file begins, the consumer is given its Download (with a null file) and a Publisher
+	 * of its verified content, which should be subscribed to straight away.  The content is
+	 * trimmed to the declared length as the OverrunOption calls for, and the Publisher
+	 * completes when the file is received, or fails if the download is cancelled.
+	 * <p>
+	 * Content is delivered as the subscriber requests it.  Each block is ACKed only once the
+	 * subscriber has taken it, so a slow subscriber slows the sender.  In YModem-G, where the
+	 * sender can't be slowed, the download is cancelled if the subscriber falls too far behind.
+	 * <p>
+	 * Each ByteBuffer is read-only, and only valid until onNext() returns, as a block the
+	 * subscriber has already requested is delivered straight from the receive buffer.
+	 * 
+	 * @param consumer Consumer of content publishers (null to write local files).
+	 */
+	public void setContentConsumer(BiConsumer<Download, ContentFlow.Publisher<ByteBuffer>> consumer) {
+		this.contentConsumer = consumer;
+	}
+	
+	/**
+	 * Set the strategy used to resynchronize with the sender after a bad block.
+	 * 
+	 * @param option Resync strategy (default ResyncOption.PURGE).
+	 */
+	public void setResyncOption(ResyncOption option) {
+		this.resyncOption = option;
+	}
+	
+	/**
+	 * Set the limits on how long XYModem will wait for the line to clear, before
+	 * NAK, before a handshake, or while cancelling.
+	 * <p>
+	 * A sender which never stops transmitting (a misbehaving modem, or an attacker)
+	 * would otherwise hold the download forever.  If either limit is reached, the
+	 * download is cancelled (or, if already cancelling, the cancel is sent anyway).
+	 * Each wait ends by the time limit (never less than the gap it is waiting for),
+	 * so a download given nothing but noise ends within twice the limit: one wait
+	 * after the error, and one while cancelling.
+	 * 
+	 * @param maxMillis Maximum milliseconds to wait for the line to clear (default 60000).
+	 * @param maxBytes Maximum bytes to discard while waiting for the line to clear (default 65536).
+	 */
+	public void setPurgeLimits(int maxMillis, long maxBytes) {
+		this.purgeTimeLimit = maxMillis;
+		this.purgeByteLimit = maxBytes;
+	}
+	
+	/**
+	 * Number of NAKs sent after waiting for the line to be silent (ResyncOption.PURGE).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getPurgeResyncCount() {
+		return purgeResyncCount;
+	}
+	
+	/**
+	 * Number of NAKs sent without waiting for the line to be silent (ResyncOption.SCAN).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getScanResyncCount() {
+		return scanResyncCount;
+	}
+	
+	/**
+	 * Number of times a block header was found while scanning after a bad block,
+	 * so no NAK was needed (ResyncOption.SCAN).
+	 * 
+	 * @return Count since this instance was created.
+	 */
+	public long getHeaderResyncCount() {
+		return headerResyncCount;
+	}
+	
 	/**
 	 * Examines sequence of characters for the ZModem ZRQINIT frame requesting
 	 * start of download, and indicates whether it is seen.
@@ -271,30 +489,74 @@ public class XYModem {
 	 * Returns when download is complete, or has been cancelled.
 	 */
 	public void download() {
-		protocol = new ProtocolDetector(io);
+		transfer();
+	}
+	
+	/**
+	 * Begin download of file(s) on a thread from the given executor.
+	 * <p>
+	 * The returned future completes with the TransferResult when the download is
+	 * complete, or has been cancelled.  The future of each file (see setFileConsumer())
+	 * completes as the file is received.
+	 * 
+	 * @param executor Executor to run the download on.
+	 * @return Future result of the download session.
+	 */
+	public CompletableFuture<TransferResult> downloadAsync(Executor executor) {
+		return CompletableFuture.supplyAsync(this::transfer, executor);
+	}
+	
+	/**
+	 * Run the download session.
+	 * 
+	 * @return Result of the session.
+	 */
+	private TransferResult transfer() {
+		tracker = new TransferTracker(io, fileConsumer);
+		tracker.start(System.nanoTime());
+		protocol = new ProtocolDetector(tracker);
+		timer = new LinkTimer();
+		syncer = new FileSyncer(durabilityOption);
+		cancelReason = null;
 		try {
+			boolean cleanEnd = false;
 			while (true) {
-				sendHandshake();
+				sendHandshake(cleanEnd);
 				if (!downloadFile()) {
 					break;
 				}
+				// previous file ended with EOT and ACK, so the line is already clear
+				cleanEnd = true;
 			}
 		} catch (UserCancelException e) {
 			cancel("Download cancelled by user.");
 		} catch (AbortDownloadException e) {
 			cancel("Download cancelled: " + e.getMessage());
 		}
+		syncer.close();
+		return tracker.finish(protocol, cancelReason, System.nanoTime());
 	}
 	
 	/**
 	 * Send handshake and wait for response.
 	 * 
+	 * @param cleanEnd True if the previous file in a batch ended cleanly with EOT and ACK.
 	 * @throws AbortDownloadException If handshake times out.
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private void sendHandshake() throws AbortDownloadException, UserCancelException {
-		// wait until nothing coming in
-		purge(false);
+	private void sendHandshake(boolean cleanEnd) throws AbortDownloadException, UserCancelException {
+		/*
+		 * Chapter 5.  YMODEM Batch File Transmission
+		 * After the file contents and XMODEM EOT have been transmitted and
+		 * acknowledged, the receiver again asks for the next pathname.
+		 * [The sender is then waiting for us, so there is nothing to purge.]
+		 */
+		if (!cleanEnd) {
+			// wait until nothing coming in
+			if (!purge(false)) {
+				throw new AbortDownloadException("Line did not clear before handshake.");
+			}
+		}
 		/*
 		 * Chapter 7.3.2  Receive_Program_Considerations
 		 * The receiver has a 10-second timeout.  It sends a <nak> every time it
@@ -310,7 +572,7 @@ public class XYModem {
 			 * All errors are retried 10 times.
 			 */
 			if (retry(10, () -> {
-				io.write(handshake);
+				send(handshake);
 				return waitForData(10000);
 			})) {
 				return;
@@ -328,7 +590,7 @@ public class XYModem {
 		// try 'G' a few times
 		log("Checking for YModem-G...");
 		if (retry(3, () -> {
-			io.write('G');
+			send('G');
 			return waitForData(2000);
 		})) {
 // here we will know if streaming ==> YModem-G
@@ -378,7 +640,7 @@ public class XYModem {
 		// try 'C' a few times
 		log("Checking for YModem-Batch, XModem-1K or XModem-CRC...");
 		if (retry(3, () -> {
-			io.write('C');
+			send('C');
 			return waitForData(2000);
 		})) {
 // here we know if CRC ==> XModem-CRC, XModem-1K, YModem-Batch
@@ -390,7 +652,7 @@ public class XYModem {
 		log("Starting XModem-Checksum...");
 		// try NAK a few times
 		if (retry(4, () -> {
-			io.write(NAK);
+			send(NAK);
 			return waitForData(2000);
 		})) {
 // here we know if Checksum ==> XModem-Checksum
@@ -409,12 +671,9 @@ public class XYModem {
 	 */
 	private boolean downloadFile() throws AbortDownloadException, UserCancelException {
 		boolean endOfFile = false;
-		Character prevBlockNum = null;
-		Download download = null;
-		OutputStream os = null;
-		long count = 0;
-		boolean possibleLastPacket = false;
-		Instant start = Instant.now();
+		prevBlockNum = NO_BLOCK;
+		IncomingFile file = null;
+		long start = System.nanoTime();
 		try {
 			while (true) {
 				/*
@@ -431,10 +690,23 @@ public class XYModem {
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
 						 * transfer with the multiple CAN abort sequence.
 						 */
-						nakOrThrow("Timed out waiting for block header.");
+						nakOrThrow("Timed out waiting for block header.", true);
 						continue;	// retry the block
 					}
 					if ((header[0] == EOT) || (header[0] == EOF)) {
+						if (file == null) {
+							/*
+							 * Chapter 2.  YMODEM MINIMUM REQUIREMENTS
+							 * At the end of each file, the sending program shall send EOT up to ten
+							 * times until it receives an ACK character.
+							 * [No file is open, so this is a repeat of the previous file's EOT.]
+							 */
+							debug("\nRepeated EOT.\n");
+							// the sender missed our ACK, so it also missed the handshake for the next file
+							queue(ACK);
+							send(handshake);
+							continue;	// retry the block
+						}
 						/*
 						 * Chapter 6.  YMODEM-g File Transmission
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
@@ -444,62 +716,24 @@ public class XYModem {
 						if (!endOfFile && !protocol.isStreaming) {
 							// make them send EOT twice, to make sure not glitched data
 							endOfFile = true;
-							nak("Doublecheck EOT.");
+							/*
+							 * [The EOT was read in place of a header, between blocks, and the sender
+							 * waits for a reply to it, so there is nothing to purge.  If it was a
+							 * glitched header, the rest of the block follows, and is NAKed as usual.]
+							 */
+							debug("\nNAK: Doublecheck EOT.\n");
+							send(NAK);
 							continue;	// retry the block
 						}
-						os.close();
-						if (download.length != 0) {
-							long overrun = count - download.length;
-							if (overrun < 0) {
-								// file ended before expected packet
-								log("Received file was shorter than declared length.");
-								log(formatBytes(count) + " / " + formatBytes(download.length) + " (short " + formatBytes(-overrun) + ").");
-							} else if (overrun > 0) {
-								if (possibleLastPacket) {
-									// file ended on the expected packet
-									/*
-									 * Chapter 5.  YMODEM Batch File Transmission
-									 * The receiver stores the specified number of characters, discarding
-									 * any padding added by the sender to fill up the last block.
-									 */
-									if (overrunOption != OverrunOption.ACCEPT) {
-										// Here we follow the spec and discard any extra chars from the last packet.
-										// Note: This could cause data loss if a file overruns but still ends in the same packet.
-										debug("\nTruncating downloaded file from %d to %d.\n", count, download.length);
-										FileChannel fc = FileChannel.open(download.file, StandardOpenOption.WRITE);
-										fc.truncate(download.length);
-										fc.close();
-									}
-								} else {
-									// file ended after expected packet
-									if (overrunOption == OverrunOption.IGNORE) {
-										debug("\nTruncating downloaded file from %d to %d.\n", count, download.length);
-										FileChannel fc = FileChannel.open(download.file, StandardOpenOption.WRITE);
-										fc.truncate(download.length);
-										fc.close();
-									} else {
-										// Here we are forgiving and allow the extra data, to handle cases where the file sent
-										// was longer than claimed.
-										// (if option is ERROR, we should have already thrown)
-										log("Received file was longer than declared length.");
-										log(formatBytes(count) + " / " + formatBytes(download.length) + " (extra " + formatBytes(overrun) + ").");
-									}
-								}
-							}
-							// else file ended on the expected packet, exactly on packet boundary
+						file.finish(System.nanoTime());
+						if (!protocol.isBatch) {
+							// the only file of the transfer
+							syncer.endBatch();
 						}
-						download.resetLastModified();
-						Duration elapsed = Duration.between(start, Instant.now());
-						log("Download complete.  Elapsed time: " + formatElapsedTime(elapsed) + " (" + formatBPS(count, elapsed) + ")");
-						debug("File: %s\n", download.file.toString());
-						io.received(download);
 						// reset the per-file vars, in case another file coming
 						endOfFile = false;
-						prevBlockNum = null;
-						download = null;
-						os = null;
-						count = 0;
-						possibleLastPacket = false;
+						prevBlockNum = NO_BLOCK;
+						file = null;
 						/*
 						 * Chapter 2.  YMODEM MINIMUM REQUIREMENTS
 						 * At the end of each file, the sending program shall send EOT up to ten
@@ -511,7 +745,7 @@ public class XYModem {
 						 * particular file, and also expects an ACK on the EOT sent at the end of
 						 * each file.
 						 */
-						io.write(ACK);
+						send(ACK);
 						/*
 						 * Chapter 5.  YMODEM Batch File Transmission
 						 * After the file contents and XMODEM EOT have been transmitted and
@@ -554,17 +788,17 @@ public class XYModem {
 							 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
 							 * transfer with the multiple CAN abort sequence.
 							 */
-							nakOrThrow("Invalid packet header (0x" + Integer.toHexString(header[0]) + ").");
+							nakOrThrow("Invalid packet header (0x" + Integer.toHexString(header[0]) + ").", false);
 							continue;	// retry the block
 					}
-					Character blockNum = getBlockNum(header);
-					if (blockNum == null) {
+					int blockNum = getBlockNum(header);
+					if (blockNum == NO_BLOCK) {
 						/*
 						 * Chapter 6.  YMODEM-g File Transmission
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
 						 * transfer with the multiple CAN abort sequence.
 						 */
-						nakOrThrow("Invalid block number (0x" + Integer.toHexString(header[1] & 0xFF) + ").");
+						nakOrThrow("Invalid block number (0x" + Integer.toHexString(header[1] & 0xFF) + ").", false);
 						continue;	// retry the block
 					}
 					/*
@@ -601,17 +835,18 @@ public class XYModem {
 					 * 127 characters to be seen instead of 128.
 					 */
 					debug(" Reading %d byte packet.", packetSize);
-					byte[] packet = readBytes(packetSize, 1000);
-					if (packet == null) {
+					byte[] packet = (packetSize == 1024) ? longPacket : shortPacket;
+					int packetCRC = readPacket(packet, packetSize, timer.deadline(packetSize, System.nanoTime()));
+					if (packetCRC == TIMEOUT) {
 						/*
 						 * Chapter 6.  YMODEM-g File Transmission
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
 						 * transfer with the multiple CAN abort sequence.
 						 */
-						nakOrThrow("Timed out waiting for block data.");
+						nakOrThrow("Timed out waiting for block data.", true);
 						continue;	// retry the block
 					}
-					byte[] crc;
+					int crcSize;
 					if (protocol.isCRC) {
 						/*
 						 * Chapter 4.2  CRC-16 Option
@@ -624,7 +859,7 @@ public class XYModem {
 						 * 		<SOH><blk #><255-blk #><--128 data bytes--><CRC hi><CRC lo>
 						 */
 						debug(" Reading CRC...");
-						crc = readBytes(2, 1000);
+						crcSize = 2;
 					} else {
 						/*
 						 * Chapter 7.2  Transmission Medium Level Protocol
@@ -632,18 +867,18 @@ public class XYModem {
 						 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
 						 */
 						debug(" Reading checksum...");
-						crc = readBytes(1, 1000);
+						crcSize = 1;
 					}
-					if (crc == null) {
+					if (!readBytes(crcBuffer, 0, crcSize, timer.deadline(crcSize, System.nanoTime()))) {
 						/*
 						 * Chapter 6.  YMODEM-g File Transmission
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
 						 * transfer with the multiple CAN abort sequence.
 						 */
-						nakOrThrow("Timed out waiting for block CRC/checksum.");
+						nakOrThrow("Timed out waiting for block CRC/checksum.", true);
 						continue;	// retry the block
 					}
-					if (!checkCRC(packet, crc)) {
+					if (!checkCRC(packetCRC, crcBuffer, crcSize)) {
 						/*
 						 * Chapter 6.  YMODEM-g File Transmission
 						 * If an error is detected in a YMODEM-g transfer, the receiver aborts the
@@ -654,7 +889,7 @@ public class XYModem {
 						 * If the filename block is received with a CRC or other error, a
 						 * retransmission is requested.
 						 */
-						nakOrThrow("Invalid block CRC/checksum.");
+						nakOrThrow("Invalid block CRC/checksum.", false);
 						continue;	// retry the block
 					}
 					/*
@@ -665,11 +900,11 @@ public class XYModem {
 					 * indicates that the receivers <ack> got glitched, and the sender re-
 					 * transmitted; [...].
 					 */
-					if (prevBlockNum == null) {
+					if (prevBlockNum == NO_BLOCK) {
 						if (blockNum == 0x00) {
 // here we know if batch (block 0) ==> YModem-Batch
 							protocol.setBatch(true);
-							download = processBlock0(packet);
+							Download download = processBlock0(packet);
 							/*
 							 * Chapter 2.  YMODEM MINIMUM REQUIREMENTS
 							 * The end of a transfer session shall be signified by a null (empty)
@@ -685,6 +920,7 @@ public class XYModem {
 							 */
 							if (download == null) {
 								log("No more files to download.");
+								syncer.endBatch();
 								/*
 								 * Chapter 6.  YMODEM-g File Transmission
 								 * When the sender recognizes the G, it
@@ -693,17 +929,11 @@ public class XYModem {
 								 * exerted by the medium.
 								 */
 								if (!protocol.isStreaming) {
-									io.write(ACK);
+									send(ACK);
 								}
 								return false;
 							}
-							String message = "Downloading " + download.name;
-							if (download.length > 0) {
-								message += " (" + formatBytes(download.length) + ")";
-							}
-							log(message);
-							os = Files.newOutputStream(download.file);
-							io.progress(count, download.length);
+							file = new IncomingFile(download, overrunOption, paddingOption, tracker, start, sinkFactory, syncer, contentConsumer);
 							prevBlockNum = blockNum;
 							/*
 							 * Chapter 2.  YMODEM MINIMUM REQUIREMENTS
@@ -730,51 +960,27 @@ public class XYModem {
 							 * each file.
 							 */
 							if (!protocol.isStreaming) {
-								io.write(ACK);
+								queue(ACK);
 							}
-							io.write(handshake);
+							send(handshake);
 							break;	// on to the next block (and file)
 						} else if (blockNum == 0x01) {
 							protocol.setBatch(false);
-							download = new Download();
-							os = Files.newOutputStream(download.file);
+							file = new IncomingFile(new Download(null, false), overrunOption, paddingOption, tracker, start, sinkFactory, syncer, contentConsumer);
 							protocol.set1K(header[0] == STX);
-							io.progress(count, download.length);
 						}
 					}
 					// only process the block if it's not a repeat
-					if ((prevBlockNum == null) || (blockNum != prevBlockNum)) {
-						if (possibleLastPacket) {
-							// the previous packet was supposed to be the last, but here we are with another packet
-							String message = "File has exceeded its declared length: " + formatBytes(download.length);
-							if (overrunOption == OverrunOption.ERROR) {
-								throw new AbortDownloadException(message);
-							}
-							log("File has exceeded its declared length: " + formatBytes(download.length));
-							possibleLastPacket = false;
-						}
-
-						long afterPacket = count + packet.length;
-						// if a length was given, and the current count is less than the length
-						// but this packet will meet or exceed the length, this might be the
-						// last packet (unless there is an overrun).
-						if ((download.length != 0) && (count < download.length) && (afterPacket >= download.length)) {
-							possibleLastPacket = true;
-						}
-						// if no length given, or still below declared size, or option is ACCEPT or MIXED, accept the data
-						if ((download.length == 0) || (count <= download.length)
-								|| (overrunOption == OverrunOption.ACCEPT) || (overrunOption == OverrunOption.MIXED)) {
-							os.write(packet);
-							count += packet.length;
-						} else {
-							// if length given, and above declared size, and option is IGNORE, drop the data
-							// (if option is ERROR, should have thrown above)
-							debug(" Ignoring packet.");
-						}
-
-						debug(" (%d / %d)", count, download.length);
-						io.progress(count, download.length);
+					if ((prevBlockNum == NO_BLOCK) || (blockNum != prevBlockNum)) {
+						file.write(packet, packetSize);
 						prevBlockNum = blockNum;
+						// a block after the first EOT means that EOT was not real
+						endOfFile = false;
+						file.checkSubscriber(protocol.isStreaming);
+						// a slow content subscriber holds back the ACK, to slow the sender
+						if (!protocol.isStreaming && !file.awaitDrained(ContentPublisher.DEMAND_TIMEOUT)) {
+							throw new AbortDownloadException("Content subscriber stalled.");
+						}
 					}
 					/*
 					 * Chapter 6.  YMODEM-g File Transmission
@@ -784,7 +990,7 @@ public class XYModem {
 					 * exerted by the medium.
 					 */
 					if (!protocol.isStreaming) {
-						io.write(ACK);
+						send(ACK);
 					}
 					break;	// on to the next block
 				}	// end of retry loop
@@ -802,19 +1008,8 @@ public class XYModem {
 			 */
 			throw new AbortDownloadException("Error writing file.", e);
 		} finally {
-			if (os != null) {
-				try {
-					os.close();
-				} catch (IOException e) {
-					// just ignore the error
-				}
-			}
-			if (download != null) {
-				try {
-					Files.delete(download.file);
-				} catch (IOException e) {
-					// just ignore the error
-				}
+			if (file != null) {
+				file.abort();
 			}
 		}
 	}
@@ -834,8 +1029,8 @@ public class XYModem {
 		 * Each block of the transfer looks like:
 		 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
 		 */
-		byte[] header = new byte[3];
-		Character ch;
+		byte[] header = headerBuffer;
+		int ch;
 		/*
 		 * Chapter 7.3.2  Receive_Program_Considerations
 		 * The receiver has a 10-second timeout.  It sends a <nak> every time it
@@ -846,14 +1041,16 @@ public class XYModem {
 		 * The character-receive subroutine should be called with a parameter
 		 * specifying the number of seconds to wait.  The receiver should first
 		 * call it with a time of 10, then <nak> and try again, 10 times.
+		 * [Once the turnaround time of the link has been measured, this is
+		 * shortened to fit it, but never to less than 1 second.]
 		 */
-		int timeout = 10000;
-		ch = readData(timeout);
-		if (ch == null) {
+		ch = readData(timer.headerTimeout(protocol.isStreaming));
+		if (ch == TIMEOUT) {
 			debug(" NULL\n");
 			return null;
 		}
-		header[0] = (byte)(ch & 0xFF);
+		timer.headerStarted(System.nanoTime());
+		header[0] = (byte)ch;
 		/*
 		 * Chapter 7.3.2  Receive_Program_Considerations
 		 * Once into a receiving a block, the receiver goes into a one-second timeout
@@ -866,10 +1063,11 @@ public class XYModem {
 		 * message and the <cksum>.  Since they are sent as a continuous stream,
 		 * timing out of this implies a serious like glitch that caused, say,
 		 * 127 characters to be seen instead of 128.
+		 * [Once the byte rate of the link has been measured, each part of the
+		 * block must instead arrive by a deadline which fits that rate.]
 		 */
-		timeout = 1000;
 		if ((ch == EOT) || (ch == EOF)) {
-			debug(" 0x%02x %s\n", (int)ch, (ch == EOT) ? "EOT" : "EOF");
+			debug(" 0x%02x %s\n", ch, (ch == EOT) ? "EOT" : "EOF");
 			return header;
 		}
 		/*
@@ -880,19 +1078,19 @@ public class XYModem {
 		 * when is waiting for the beginning of a block [...].
 		 */
 		if (ch == CAN) {
-			debug(" 0x%02x CAN", (int)ch);
-			ch = readData(timeout);
-			if (ch == null) {
+			debug(" 0x%02x CAN", ch);
+			ch = readData(chunkTimeout(timer.deadline(1, System.nanoTime())));
+			if (ch == TIMEOUT) {
 				debug(" NULL\n");
 				return null;
 			}
 			if (ch == CAN) {
-				debug(" 0x%02x CAN\n", (int)ch);
+				debug(" 0x%02x CAN\n", ch);
 				throw new AbortDownloadException("Cancel received from sender.");
 			}
 			// Not a valid header, but not a cancel.  Give up and return the data so far.
-			debug(" 0x%02x INVALID\n", (int)ch);
-			header[1] = (byte)(ch & 0xFF);
+			debug(" 0x%02x INVALID\n", ch);
+			header[1] = (byte)ch;
 			return header;
 		}
 		/*
@@ -904,18 +1102,15 @@ public class XYModem {
 		 */
 		if ((ch != SOH) && (ch != STX)) {
 			// Not a valid header.  Give up and return the data so far.
-			debug(" 0x%02x INVALID\n", (int)ch);
+			debug(" 0x%02x INVALID\n", ch);
 			return header;
 		}
-		debug(" 0x%02x %s:", (int)ch, (ch == SOH) ? "SOH" : "STX");
-		byte[] bytes = readBytes(2, timeout);
-		if (bytes == null) {
+		debug(" 0x%02x %s:", ch, (ch == SOH) ? "SOH" : "STX");
+		if (!readBytes(header, 1, 2, timer.deadline(2, System.nanoTime()))) {
 			debug(" NULL\n");
 			return null;
 		}
-		debug(" [0x%02x, 0x%02x].", bytes[0], bytes[1]);
-		header[1] = bytes[0];
-		header[2] = bytes[1];
+		debug(" [0x%02x, 0x%02x].", header[1] & 0xFF, header[2] & 0xFF);
 		return header;
 	}
 	
@@ -923,30 +1118,30 @@ public class XYModem {
 	 * Reads block number from given header.
 	 * 
 	 * @param header Header to read block number from.
-	 * @return Block number, or null if invalid value.
+	 * @return Block number, or NO_BLOCK if invalid value.
 	 */
-	private Character getBlockNum(byte[] header) {
+	private int getBlockNum(byte[] header) {
 		/*
 		 * Chapter 7.2  Transmission Medium Level Protocol
 		 * Each block of the transfer looks like:
 		 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
 		 */
-		char blockNum = (char)(header[1] & 0xFF);
+		int blockNum = header[1] & 0xFF;
 		if ((header[2] & 0xFF) == (255 - blockNum)) {
-			debug(" Block %02x.", (int)blockNum);
+			debug(" Block %02x.", blockNum);
 			return blockNum;
 		}
-		return null;
+		return NO_BLOCK;
 	}
 	
 	/**
 	 * Check that the current block number is expected, given the previous block number.
 	 * 
 	 * @param blockNum Current block number.
-	 * @param prevBlockNum Previous block number.
+	 * @param prevBlockNum Previous block number, or NO_BLOCK if none yet.
 	 * @return True if in sequence.
 	 */
-	private boolean validBlockNum(char blockNum, Character prevBlockNum) {
+	static boolean validBlockNum(int blockNum, int prevBlockNum) {
 		/*
 		 * Chapter 7.3.2  Receive_Program_Considerations
 		 * If a valid block number is received, it will be: 1) the
@@ -957,7 +1152,7 @@ public class XYModem {
 		 * synchronization, such as the rare case of the sender getting a line-glitch
 		 * that looked like an <ack>.  Abort the transmission, sending a <can>
 		 */
-		if (prevBlockNum == null) {
+		if (prevBlockNum == NO_BLOCK) {
 			if ((blockNum == 0x00) || (blockNum == 0x01)) {
 				return true;
 			}
@@ -970,37 +1165,19 @@ public class XYModem {
 	}
 	
 	/**
-	 * Calculate the CRC/checksum of the given packet, and verify it matches the given CRC/checksum.
+	 * Verify the CRC/checksum calculated for a packet matches the given CRC/checksum.
 	 * 
-	 * @param packet Packet to calculate CRC/checksum for.
+	 * @param received CRC/checksum calculated from the received packet.
 	 * @param crc Expected CRC/checksum bytes.
+	 * @param crcSize Number of CRC/checksum bytes in crc.
 	 * @return True if the CRC/checksum validates.
 	 */
-	private boolean checkCRC(byte[] packet, byte[] crc) {
-		long expected = 0;
-		for (int i=0; i<crc.length; i++) {
-			expected = (expected << 8) + (crc[i] & 0xFF);
-		}
-		long received;
-		if (protocol.isCRC) {
-			/*
-			 * Chapter 4.2  CRC-16 Option
-			 * A two byte CRC is sent in place of the one
-			 * byte arithmetic checksum.
-			 */
-			/*
-			 * Chapter 8.  XMODEM/CRC Overview
-			 * Each block of the transfer in CRC mode looks like:
-			 * 		<SOH><blk #><255-blk #><--128 data bytes--><CRC hi><CRC lo>
-			 */
-			received = CRC.calculate(CRC.CRC16_CCITT_XModem, packet);
+	static boolean checkCRC(int received, byte[] crc, int crcSize) {
+		int expected;
+		if (crcSize == 2) {
+			expected = ((crc[0] & 0xFF) << 8) | (crc[1] & 0xFF);
 		} else {
-			/*
-			 * Chapter 7.2  Transmission Medium Level Protocol
-			 * Each block of the transfer looks like:
-			 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
-			 */
-			received = CRC.calculate(CRC.Checksum8, packet);
+			expected = crc[0] & 0xFF;
 		}
 		boolean ok = (expected == received);
 		debug(ok ? "OK." : "Expected %04x, got %04x.", expected, received);
@@ -1013,7 +1190,7 @@ public class XYModem {
 	 * @param packet Block 0 packet.
 	 * @return Array of strings from block 0.
 	 */
-	private String[] readBlock0Strings(byte[] packet) {
+	private static String[] readBlock0Strings(byte[] packet) {
 		StringBuilder sb = new StringBuilder();
 		String[] strings = new String[5];
 		int strNum = 0;
@@ -1076,13 +1253,14 @@ public class XYModem {
 	}
 	
 	/**
-	 * Read data from block 0 and create a Download object with local file to write.
+	 * Read data from block 0 and create a Download object.
+	 * The local file is not created; that is up to the SinkFactory.
 	 * 
 	 * @param packet Block 0 packet.
 	 * @return New Download object.
-	 * @throws AbortDownloadException If error when creating new file.
+	 * @throws AbortDownloadException If error creating the Download.
 	 */
-	private Download processBlock0(byte[] packet) throws AbortDownloadException {
+	static Download processBlock0(byte[] packet) throws AbortDownloadException {
 		debug("\nBlock0:");
 		String[] strings = readBlock0Strings(packet);
 		// FILENAME
@@ -1107,7 +1285,7 @@ public class XYModem {
 			return null;
 		}
 		debug(" Name:'%s'", strings[0]);
-		Download download = new Download(strings[0]);
+		Download download = new Download(strings[0], false);
 
 		// FILE SIZE
 		/*
@@ -1210,14 +1388,15 @@ public class XYModem {
 	
 	/**
 	 * Purge all incoming data in the queue.
-	 * Returns when no more data is available.
+	 * Returns when no more data is available, or when the purge limits are reached.
 	 * If cancel is true, also returns after an echoed
 	 * cancel sequence (8 CAN + 8 BS) is read.
 	 * 
 	 * @param cancel True to watch for cancel sequence.
+	 * @return True if the line cleared (or cancel sequence was read), false if a purge limit was reached.
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private void purge(boolean cancel) throws UserCancelException {
+	private boolean purge(boolean cancel) throws UserCancelException {
 		/*
 		 * Chapter 7.4  Programming Tips
 		 * The most common technique is for "PURGE" to call the character
@@ -1225,12 +1404,31 @@ public class XYModem {
 		 * back to PURGE until a timeout occurs.
 		 */
 		debug("PURGE");
+		long start = System.nanoTime();
+		long bytes = 0;
 		int can = 0;
 		int bs = 0;
-		Character ch;
-		while ((ch = readData(1000)) != null) {
+		int timeout;
+		while ((timeout = purgeTimeout(start, PURGE_GAP)) > 0) {
+			int read = readChunk(purgeBuffer, 0, purgeBuffer.length, timeout);
+			if (read <= 0) {
+				if (timeout < PURGE_GAP) {
+					// cut short by the time limit, so the line was not seen to clear
+					break;
+				}
+				debug("\n");
+				return true;
+			}
 			debug(".");
-			if (cancel) {
+			bytes += read;
+			if (!cancel) {
+				if (purgeLimitReached(start, bytes)) {
+					return false;
+				}
+				continue;
+			}
+			for (int i=0; i<read; i++) {
+				char ch = (char)(purgeBuffer[i] & 0xFF);
 				if (can < CAN_COUNT) {
 					// looking for CAN series
 					if (ch == CAN) {
@@ -1248,36 +1446,84 @@ public class XYModem {
 					}
 				} else {
 					// found echoed cancel sequence
-					return;
+					return true;
 				}
 			}
+			if (purgeLimitReached(start, bytes)) {
+				return false;
+			}
 		}
-		debug("\n");
+		debug(" LIMIT (%d bytes)\n", bytes);
+		return false;
+	}
+	
+	/**
+	 * Timeout for the next read of a purge (or scan): the gap which means
+	 * the line is clear, cut short so the read ends by the purge time limit.
+	 * Checking the limit only between reads would let a sender which pauses
+	 * just under the gap overrun the limit by up to a gap.
+	 * The limit is at least one gap, so a silent line can always be seen to clear.
+	 * 
+	 * @param start System.nanoTime() when the purge started.
+	 * @param gap Milliseconds with no data which means the line is clear.
+	 * @return Milliseconds to wait, or 0 if the time limit has been reached.
+	 */
+	private int purgeTimeout(long start, int gap) {
+		long remaining = Math.max(purgeTimeLimit, gap) - ((System.nanoTime() - start) / 1000000L);
+		return (int)Math.max(0, Math.min(gap, remaining));
+	}
+	
+	/**
+	 * Check whether a purge (or scan) has run past the purge limits.
+	 * 
+	 * @param start System.nanoTime() when the purge started.
+	 * @param bytes Number of bytes discarded so far.
+	 * @return True if either limit has been reached.
+	 */
+	private boolean purgeLimitReached(long start, long bytes) {
+		if ((bytes >= purgeByteLimit) || ((System.nanoTime() - start) >= (purgeTimeLimit * 1000000L))) {
+			debug(" LIMIT (%d bytes)\n", bytes);
+			return true;
+		}
+		return false;
 	}
 	
 	/**
 	 * Purge waiting data and send NAK, or abort if protocol.isStreaming.
 	 * 
 	 * @param message Reason for NAK/abort.
+	 * @param blockOver True if the line is known to be clear (error was a timeout).
 	 * @throws AbortDownloadException If protocol.isStreaming
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private void nakOrThrow(String message) throws AbortDownloadException, UserCancelException {
+	private void nakOrThrow(String message, boolean blockOver) throws AbortDownloadException, UserCancelException {
 		if (protocol.isStreaming) {
 			debug("\nABORT: %s\n", message);
 			throw new AbortDownloadException(message);
 		}
-		nak(message);
+		nak(message, blockOver);
 	}
 	
 	/**
 	 * Purge waiting data and send NAK.
 	 * 
 	 * @param message Reason for NAK.
+	 * @param blockOver True if the line is known to be clear (error was a timeout).
+	 * @throws AbortDownloadException If the line did not clear within the purge limits.
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private void nak(String message) throws UserCancelException {
+	private void nak(String message, boolean blockOver) throws AbortDownloadException, UserCancelException {
 		debug("\nNAK: %s\n", message);
+		if (resyncOption == ResyncOption.SCAN) {
+			if (!blockOver && scanForHeader()) {
+				// sender is already retransmitting, so pick up from its header
+				headerResyncCount++;
+				return;
+			}
+			scanResyncCount++;
+			send(NAK);
+			return;
+		}
 		/*
 		 * Chapter 7.3.2  Receive_Program_Considerations
 		 * If the receiver wishes to <nak> a
@@ -1291,8 +1537,70 @@ public class XYModem {
 		 * any characters in its UART buffer immediately upon completing sending
 		 * a block, to ensure no glitches were mis- interpreted.
 		 */
-		purge(false);
-		io.write(NAK);
+		if (!purge(false)) {
+			throw new AbortDownloadException("Line did not clear after error: " + message);
+		}
+		purgeResyncCount++;
+		send(NAK);
+	}
+	
+	/**
+	 * Discard incoming data until there is a short gap, or until a header for
+	 * the expected (or repeated) block is seen.
+	 * If a header is found, it is left to be read by readHeader().
+	 * 
+	 * @return True if a header was found, false if the line went quiet.
+	 * @throws AbortDownloadException If neither happened within the purge limits.
+	 * @throws UserCancelException If user cancelled the download.
+	 */
+	private boolean scanForHeader() throws AbortDownloadException, UserCancelException {
+		debug("SCAN");
+		long start = System.nanoTime();
+		long bytes = 0;
+		int b0 = TIMEOUT;
+		int b1 = TIMEOUT;
+		int timeout;
+		while ((timeout = purgeTimeout(start, SCAN_TIMEOUT)) > 0) {
+			int b2 = readData(timeout);
+			if (b2 == TIMEOUT) {
+				if (timeout < SCAN_TIMEOUT) {
+					// cut short by the time limit, so the line was not seen to go quiet
+					break;
+				}
+				debug("\n");
+				return false;
+			}
+			debug(".");
+			/*
+			 * Chapter 7.2  Transmission Medium Level Protocol
+			 * Each block of the transfer looks like:
+			 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
+			 */
+			if (((b0 == SOH) || (b0 == STX)) && (b2 == (255 - b1))) {
+				boolean expected;
+				if (prevBlockNum == NO_BLOCK) {
+					expected = (b1 == 0x00) || (b1 == 0x01);
+				} else {
+					expected = (b1 == prevBlockNum) || (b1 == ((prevBlockNum + 1) & 0xFF));
+				}
+				if (expected) {
+					debug(" found block %02x\n", b1);
+					pending[0] = (byte)b0;
+					pending[1] = (byte)b1;
+					pending[2] = (byte)b2;
+					pendingStart = 0;
+					pendingEnd = 3;
+					return true;
+				}
+			}
+			b0 = b1;
+			b1 = b2;
+			bytes++;
+			if (purgeLimitReached(start, bytes)) {
+				break;
+			}
+		}
+		throw new AbortDownloadException("No block header found after error.");
 	}
 	
 	/**
@@ -1303,13 +1611,14 @@ public class XYModem {
 	private void cancel(String message) {
 		debug("\nCANCEL: %s\n", message);
 		log(message);
+		cancelReason = message;
 		try {
 			if (protocol.isStreaming) {
 				// In YModem-g, the sender keeps transmitting until EOF without waiting for ACK.
 				// This means purge never ends until EOF.  So we send a couple CAN before purge
 				// just to make sure it stops.
-				io.write(CAN);
-				io.write(CAN);
+				queue(CAN);
+				send(CAN);
 			}
 			purge(true);
 		} catch (UserCancelException e) {
@@ -1326,48 +1635,181 @@ public class XYModem {
 		// In YModem-g, we already sent 2 CANs...
 		int count = protocol.isStreaming ? CAN_COUNT - 2 : CAN_COUNT;
 		for (int i=0; i<count; i++) {
-			io.write(CAN);
+			queue(CAN);
 		}
 		for (int i=0; i<CAN_COUNT; i++) {
-			io.write(BS);
+			queue(BS);
+		}
+		flushResponse();
+	}
+	
+	/**
+	 * Add a byte to the pending response, to be sent by the next flushResponse().
+	 * 
+	 * @param ch Byte to transmit.
+	 */
+	private void queue(char ch) {
+		responseBuffer[responseLength++] = (byte)ch;
+	}
+	
+	/**
+	 * Add a byte to the pending response, and send the whole response.
+	 * 
+	 * @param ch Byte to transmit.
+	 */
+	private void send(char ch) {
+		queue(ch);
+		flushResponse();
+	}
+	
+	/**
+	 * Send the pending response in a single write, and flush it to the sender.
+	 */
+	private void flushResponse() {
+		if (responseLength > 0) {
+			io.write(responseBuffer, 0, responseLength);
+			responseLength = 0;
 		}
+		io.flush();
+		timer.sent(System.nanoTime());
 	}
 	
 	/**
-	 * Read the given number of bytes, and return them in an array.
+	 * Read the given number of bytes into the given array.
 	 * 
+	 * @param dst Array to store the read bytes in.
+	 * @param off Offset in dst of the first byte to store.
 	 * @param num Number of bytes to read.
-	 * @param timeout Milliseconds to wait before timing out.
-	 * @return Array of bytes, or null if timed out.
+	 * @param deadline System.nanoTime() by which all bytes must arrive, or LinkTimer.NO_DEADLINE.
+	 * @return True if all bytes were read, false if timed out.
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private byte[] readBytes(int num, int timeout) throws UserCancelException {
-		byte[] bytes = new byte[num];
-		for (int i=0; i<num; i++) {
-			Character ch = readData(timeout);
-			if (ch == null) {
-				return null;
+	private boolean readBytes(byte[] dst, int off, int num, long deadline) throws UserCancelException {
+		int count = 0;
+		while (count < num) {
+			int timeout = chunkTimeout(deadline);
+			if (timeout == 0) {
+				return false;
+			}
+			int read = readChunk(dst, off + count, num - count, timeout);
+			if (read == 0) {
+				return false;
+			}
+			count += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Read a packet of the given size into the given array, calculating its
+	 * CRC/checksum as each chunk arrives so no second pass over the packet is needed.
+	 * 
+	 * @param dst Array to store the packet in.
+	 * @param num Number of bytes in the packet.
+	 * @param deadline System.nanoTime() by which the whole packet must arrive, or LinkTimer.NO_DEADLINE.
+	 * @return CRC/checksum of the packet, or TIMEOUT if timed out.
+	 * @throws UserCancelException If user cancelled the download.
+	 */
+	private int readPacket(byte[] dst, int num, long deadline) throws UserCancelException {
+		long start = 0;
+		int buffered = 0;	// bytes in the first read, which may have been waiting in a buffer
+		int crc = 0;
+		int count = 0;
+		while (count < num) {
+			int timeout = chunkTimeout(deadline);
+			if (timeout == 0) {
+				return TIMEOUT;
+			}
+			int read = readChunk(dst, count, num - count, timeout);
+			if (read == 0) {
+				return TIMEOUT;
+			}
+			if (count == 0) {
+				start = System.nanoTime();
+				buffered = read;
+			}
+			if (protocol.isCRC) {
+				/*
+				 * Chapter 4.2  CRC-16 Option
+				 * A two byte CRC is sent in place of the one
+				 * byte arithmetic checksum.
+				 */
+				/*
+				 * Chapter 8.  XMODEM/CRC Overview
+				 * Each block of the transfer in CRC mode looks like:
+				 * 		<SOH><blk #><255-blk #><--128 data bytes--><CRC hi><CRC lo>
+				 */
+				crc = CRC16.update(crc, dst, count, read);
+			} else {
+				/*
+				 * Chapter 7.2  Transmission Medium Level Protocol
+				 * Each block of the transfer looks like:
+				 * 		<SOH><blk #><255-blk #><--128 data bytes--><cksum>
+				 */
+				crc = Checksum8.update(crc, dst, count, read);
 			}
-			bytes[i] = (byte)(ch & 0xFF);
+			count += read;
 		}
-		return bytes;
+		if (buffered < num) {
+			timer.packetReceived(num - buffered, System.nanoTime() - start);
+		}
+		return crc;
+	}
+	
+	/**
+	 * Get the timeout for the next read, given the deadline for the data being read.
+	 * 
+	 * @param deadline System.nanoTime() by which the data must arrive, or LinkTimer.NO_DEADLINE.
+	 * @return Milliseconds to wait, or 0 if the deadline has passed.
+	 */
+	private int chunkTimeout(long deadline) {
+		if (deadline == LinkTimer.NO_DEADLINE) {
+			/*
+			 * Chapter 7.3.2  Receive_Program_Considerations
+			 * Once into a receiving a block, the receiver goes into a one-second timeout
+			 * for each character and the checksum.
+			 */
+			return 1000;
+		}
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0) {
+			return 0;
+		}
+		return (int)Math.min(Integer.MAX_VALUE, (remaining + 999999) / 1000000);
+	}
+
+	/**
+	 * Read up to len bytes into the given array, as many as are available.
+	 * 
+	 * @param dst Array to store the read bytes in.
+	 * @param off Offset in dst of the first byte to store.
+	 * @param len Maximum number of bytes to read.
+	 * @param timeout Milliseconds to wait before timing out.
+	 * @return Number of bytes read, or 0 if timed out.
+	 * @throws UserCancelException If user cancelled the download.
+	 */
+	private int readChunk(byte[] dst, int off, int len, int timeout) throws UserCancelException {
+		if (pendingStart < pendingEnd) {
+			int count = Math.min(len, pendingEnd - pendingStart);
+			System.arraycopy(pending, pendingStart, dst, off, count);
+			pendingStart += count;
+			return count;
+		}
+		return io.read(dst, off, len, timeout);
 	}
 
 	/**
 	 * Waits for the next data byte.
 	 * 
 	 * @param timeout Milliseconds to wait before timing out.
-	 * @return Next data byte, or null if timed out.
+	 * @return Next data byte (0-255), or TIMEOUT if timed out.
 	 * @throws UserCancelException If user cancelled the download.
 	 */
-	private Character readData(int timeout) throws UserCancelException {
-		if (waitingData != null) {
-			char c = waitingData;
-			waitingData = null;
-			return c;
+	private int readData(int timeout) throws UserCancelException {
+		if (pendingStart < pendingEnd) {
+			return pending[pendingStart++] & 0xFF;
 		}
-		Byte b = io.read(timeout);
-		return (b == null) ? null : (char)(b & 0xFF);
+		return io.readByte(timeout);
 	}
 
 	/**
@@ -1378,12 +1820,17 @@ public class XYModem {
 	 * @throws UserCancelException If user cancelled the download.
 	 */
 	private boolean waitForData(int timeout) throws UserCancelException {
-		if (waitingData != null) {
+		if (pendingStart < pendingEnd) {
 			return true;
 		}
-		Byte b = io.read(timeout);
-		waitingData = (b == null) ? null : (char)(b & 0xFF);
-		return !(waitingData == null);
+		int ch = io.readByte(timeout);
+		if (ch == TIMEOUT) {
+			return false;
+		}
+		pending[0] = (byte)ch;
+		pendingStart = 0;
+		pendingEnd = 1;
+		return true;
 	}
 	
 	/**
@@ -1478,148 +1925,48 @@ public class XYModem {
 		public boolean attempt() throws UserCancelException;
 	}
 	
-	/**
-	 * Class for checking off protocol options to identify protocol in use.
-	 * Also keeps some flags for decisions during download.
-	 */
-	private static class ProtocolDetector {
-		/**
-		 * Possible protocols.
-		 */
-		private enum Protocol {
-			XModemChecksum ("XModem-Checksum"),
-			XModemCRC ("XModem-CRC"),
-			XModem1K ("XModem-1K"),
-			YModemBatch ("YModem-Batch"),
-			YModemG ("YModem-G");
-			public final String label;
-			private Protocol(String label) {
-				this.label = label;
-			}
-		}
-		private final List<Protocol> protocols;
-		private final IOHandler io;
-		private boolean reported = false;
-		/**
-		 * Is CRC being used?
-		 */
-		public boolean isCRC = false;
-		/**
-		 * Is this a batch transfer?
-		 */
-		public boolean isBatch = false;
-		/**
-		 * Is this a streaming transfer?
-		 */
-		public boolean isStreaming = false;
-
-		/**
-		 * Create a new ProtocolDetector.
-		 * 
-		 * @param ioHandler IOHandler to use for announcing detected protocol.
-		 */
-		public ProtocolDetector(IOHandler ioHandler) {
-			this.io = ioHandler;
-			this.protocols = new ArrayList<>();
-			this.protocols.addAll(Arrays.asList(Protocol.values()));
-		}
-		
-		/**
-		 * If protocol is confirmed, and not previously announced, announce it.
-		 */
-		private void logProtocol() {
-			if (!reported && (protocols.size() == 1)) {
-				reported = true;
-				String message = "Detected protocol: " + protocols.get(0).label;
-				debug("\n%s\n", message);
-				io.log(message);
-			}
-		}
-		
-		/**
-		 * Set CRC on or off.
-		 * 
-		 * @param on CRC state to set.
-		 */
-		public void setCRC(boolean on) {
-			if (on) {
-				isCRC = true;
-				protocols.remove(Protocol.XModemChecksum);
-			} else {
-				isCRC = false;
-				protocols.remove(Protocol.XModemCRC);
-				protocols.remove(Protocol.XModem1K);
-				protocols.remove(Protocol.YModemBatch);
-				protocols.remove(Protocol.YModemG);
-			}
-			logProtocol();
+	private void log(String message) {
+		debug("\n%s\n", message);
+		io.log(message);
+	}
+	
+	static void debug(String format, Object... args) {
+		if (DEBUG) {
+			System.out.printf(format, args);
 		}
-		
-		/**
-		 * Set streaming on or off.
-		 * 
-		 * @param on Streaming state to set.
-		 */
-		public void setStreaming(boolean on) {
-			if (on) {
-				isCRC = true;
-				isStreaming = true;
-				protocols.remove(Protocol.XModemChecksum);
-				protocols.remove(Protocol.XModemCRC);
-				protocols.remove(Protocol.XModem1K);
-				protocols.remove(Protocol.YModemBatch);
-			} else {
-				isStreaming = false;
-				protocols.remove(Protocol.YModemG);
-			}
-			logProtocol();
+	}
+	
+	/*
+	 * Overloads for the messages written for every block, so nothing is
+	 * allocated (varargs array, boxed arguments) unless DEBUG is on.
+	 */
+	static void debug(String message) {
+		if (DEBUG) {
+			System.out.print(message);
 		}
-		
-		/**
-		 * Set batch on or off.
-		 * 
-		 * @param on Batch state to set.
-		 */
-		public void setBatch(boolean on) {
-			if (on) {
-				isBatch = true;
-				protocols.remove(Protocol.XModemChecksum);
-				protocols.remove(Protocol.XModemCRC);
-				protocols.remove(Protocol.XModem1K);
-			} else {
-				isBatch = false;
-				protocols.remove(Protocol.YModemBatch);
-				protocols.remove(Protocol.YModemG);
-			}
-			logProtocol();
+	}
+	
+	static void debug(String format, int arg) {
+		if (DEBUG) {
+			System.out.printf(format, arg);
 		}
-		
-		/**
-		 * Set 1K blocks on or off.
-		 * 
-		 * @param on 1K blocks state to set.
-		 */
-		public void set1K(boolean on) {
-			if (on) {
-				protocols.remove(Protocol.XModemChecksum);
-				protocols.remove(Protocol.XModemCRC);
-			} else {
-				protocols.remove(Protocol.XModem1K);
-				protocols.remove(Protocol.YModemBatch);
-				protocols.remove(Protocol.YModemG);
-			}
-			logProtocol();
+	}
+	
+	static void debug(String format, int arg1, int arg2) {
+		if (DEBUG) {
+			System.out.printf(format, arg1, arg2);
 		}
 	}
-
-	private void log(String message) {
-		debug("\n%s\n", message);
-		io.log(message);
+	
+	static void debug(String format, int arg1, String arg2) {
+		if (DEBUG) {
+			System.out.printf(format, arg1, arg2);
+		}
 	}
 	
-	private static void debug(String format, Object... args) {
+	static void debug(String format, long arg1, long arg2) {
 		if (DEBUG) {
-			System.out.printf(format, args);
+			System.out.printf(format, arg1, arg2);
 		}
 	}
 }
@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+/**
+ * Checks that receiving a 1K block allocates nothing once the transfer is
+ * under way, whether it goes to a sink, through a write-behind queue to a
+ * sink, or to a content subscriber with demand outstanding.  Only the
+ * download's thread is measured.
+ * <p>
+ * Each transfer allocates a fixed amount (the file, tracker, result, etc.),
+ * so the same file is received with a short and a long length, and the
+ * difference is divided over the extra blocks.  The transfers are repeated
+ * first, so the JIT has compiled the receive path.
+ * 
+ * @author agent
+ */
+public class AllocationTest {
+	private static final int SHORT_BLOCKS = 64;
+	private static final int LONG_BLOCKS = 1088;
+	private static final int WARMUP = 300;
+	private static final int ATTEMPTS = 10;
+
+	@Test
+	public void streamingBlocksAllocateNothing() {
+		assertBlocksAllocateNothing(true, xymodem -> xymodem.setSinkFactory(DiscardSink.FACTORY));
+	}
+
+	@Test
+	public void acknowledgedBlocksAllocateNothing() {
+		assertBlocksAllocateNothing(false, xymodem -> xymodem.setSinkFactory(DiscardSink.FACTORY));
+	}
+
+	@Test
+	public void writeBehindBlocksAllocateNothing() {
+		// a queue of nodes would allocate as each file's drain task is queued
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16));
+		try (WriteBehindSinkFactory storage = new WriteBehindSinkFactory(DiscardSink.FACTORY, executor,
+				WriteBehindSinkFactory.DEFAULT_QUEUE_LIMIT)) {
+			assertBlocksAllocateNothing(false, xymodem -> xymodem.setSinkFactory(storage));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void subscribedBlocksAllocateNothing() {
+		assertBlocksAllocateNothing(false, xymodem -> xymodem.setContentConsumer((download, publisher) -> {
+			publisher.subscribe(new DrainingSubscriber());
+		}));
+	}
+
+	private static void assertBlocksAllocateNothing(boolean streaming, Consumer<XYModem> setup) {
+		com.sun.management.ThreadMXBean threads = threadBean();
+		Random random = new Random(1);
+		SimulatedSender shortSender = sender(SHORT_BLOCKS, random, streaming);
+		SimulatedSender longSender = sender(LONG_BLOCKS, random, streaming);
+		for (int i=0; i<WARMUP; i++) {
+			receive(shortSender, setup);
+			receive(longSender, setup);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long least = Long.MAX_VALUE;
+		for (int i=0; i<ATTEMPTS; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			receive(shortSender, setup);
+			long middle = threads.getThreadAllocatedBytes(thread);
+			receive(longSender, setup);
+			long after = threads.getThreadAllocatedBytes(thread);
+			least = Math.min(least, (after - middle) - (middle - before));
+		}
+		double perBlock = (double)least / (LONG_BLOCKS - SHORT_BLOCKS);
+		// any object is at least 16 bytes, so less than 1 per block means none per block
+		assertTrue("Allocated " + perBlock + " bytes per block", perBlock < 1);
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+
+	private static SimulatedSender sender(int blocks, Random random, boolean streaming) {
+		byte[] content = new byte[blocks * 1024];
+		random.nextBytes(content);
+		SimulatedSender sender = new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content));
+		sender.setAllowStreaming(streaming);
+		return sender;
+	}
+
+	private static void receive(SimulatedSender sender, Consumer<XYModem> setup) {
+		sender.reset();
+		XYModem xymodem = new XYModem(sender);
+		setup.accept(xymodem);
+		xymodem.download();
+		assertTrue(sender.isComplete());
+		assertEquals(1, sender.getReceivedCount());
+	}
+
+	/**
+	 * Takes all the content as it arrives, without keeping it.
+	 */
+	private static final class DrainingSubscriber implements ContentFlow.Subscriber<ByteBuffer> {
+		@Override
+		public void onSubscribe(ContentFlow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(ByteBuffer item) {
+			item.position(item.limit());
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks CRC16 against a bit at a time CRC-16/XMODEM.
+ * 
+ * @author agent
+ */
+public class CRC16Test {
+	private static final int BUFFERS = 20000;
+
+	@Test
+	public void knownAnswers() {
+		assertEquals(0x0000, CRC16.calculate(new byte[0], 0, 0));
+		byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0x31C3, CRC16.calculate(check, 0, check.length));
+		byte[] zeros = new byte[1024];
+		assertEquals(0x0000, CRC16.calculate(zeros, 0, zeros.length));
+	}
+
+	@Test
+	public void matchesBitwiseCRC() {
+		Random random = new Random(16);
+		for (int i=0; i<BUFFERS; i++) {
+			byte[] buf = randomBuffer(random);
+			int off = Math.min(buf.length, random.nextInt(8));
+			int len = Math.max(0, buf.length - off - random.nextInt(8));
+			assertEquals("Buffer " + i, bitwise(0, buf, off, len), CRC16.calculate(buf, off, len));
+		}
+	}
+
+	@Test
+	public void matchesBitwiseCRCWhenUpdatedInPieces() {
+		Random random = new Random(160);
+		for (int i=0; i<BUFFERS; i++) {
+			byte[] buf = randomBuffer(random);
+			int crc = 0;
+			int off = 0;
+			while (off < buf.length) {
+				int len = Math.min(buf.length - off, random.nextInt(20));
+				crc = CRC16.update(crc, buf, off, len);
+				off += len;
+			}
+			assertEquals("Buffer " + i, bitwise(0, buf, 0, buf.length), crc);
+		}
+	}
+
+	private static byte[] randomBuffer(Random random) {
+		// mostly block sized, plus odd lengths for the tail loop
+		int length = random.nextBoolean() ? (random.nextBoolean() ? 128 : 1024) : random.nextInt(1100);
+		byte[] buf = new byte[length];
+		random.nextBytes(buf);
+		return buf;
+	}
+
+	/**
+	 * CRC-16/XMODEM one bit at a time: polynomial 0x1021, initial value 0,
+	 * not reflected, no final XOR.
+	 */
+	private static int bitwise(int crc, byte[] buf, int off, int len) {
+		for (int i=off; i<off+len; i++) {
+			crc ^= (buf[i] & 0xFF) << 8;
+			for (int bit=0; bit<8; bit++) {
+				crc = ((crc & 0x8000) != 0) ? ((crc << 1) ^ 0x1021) : (crc << 1);
+				crc &= 0xFFFF;
+			}
+		}
+		return crc;
+	}
+}
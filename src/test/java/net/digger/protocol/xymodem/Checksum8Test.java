@@ -0,0 +1,73 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks Checksum8 against a byte at a time sum.
+ * 
+ * @author agent
+ */
+public class Checksum8Test {
+	private static final int BUFFERS = 20000;
+
+	@Test
+	public void knownAnswers() {
+		assertEquals(0x00, Checksum8.calculate(new byte[0], 0, 0));
+		byte[] block = new byte[128];
+		Arrays.fill(block, (byte)0xFF);
+		// 128 * 0xFF = 0x7F80
+		assertEquals(0x80, Checksum8.calculate(block, 0, block.length));
+		Arrays.fill(block, (byte)XYModem.EOF);
+		// 128 * 0x1A = 0x0D00
+		assertEquals(0x00, Checksum8.calculate(block, 0, block.length));
+	}
+
+	@Test
+	public void matchesSimpleSum() {
+		Random random = new Random(8);
+		for (int i=0; i<BUFFERS; i++) {
+			byte[] buf = new byte[random.nextBoolean() ? 128 : random.nextInt(1100)];
+			random.nextBytes(buf);
+			int off = Math.min(buf.length, random.nextInt(8));
+			int len = Math.max(0, buf.length - off - random.nextInt(8));
+			assertEquals("Buffer " + i, sum(buf, off, len), Checksum8.calculate(buf, off, len));
+
+			int checksum = 0;
+			for (int pos=0; pos<buf.length; ) {
+				int piece = Math.min(buf.length - pos, random.nextInt(20));
+				checksum = Checksum8.update(checksum, buf, pos, piece);
+				pos += piece;
+			}
+			assertEquals("Buffer " + i, sum(buf, 0, buf.length), checksum);
+		}
+	}
+
+	private static int sum(byte[] buf, int off, int len) {
+		int sum = 0;
+		for (int i=off; i<off+len; i++) {
+			sum = (sum + (buf[i] & 0xFF)) & 0xFF;
+		}
+		return sum;
+	}
+}
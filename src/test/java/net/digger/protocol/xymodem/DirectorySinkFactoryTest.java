@@ -0,0 +1,162 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that files only appear under their final names once complete,
+ * and that a clashing name is numbered rather than replaced, whether
+ * published by a hard link or, where links fail, by a rename.
+ * 
+ * @author agent
+ */
+public class DirectorySinkFactoryTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void finalNameAppearsOnlyOnCommit() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		DirectorySinkFactory factory = new DirectorySinkFactory(dir);
+		Download download = new Download("report.txt", false);
+		DownloadSink sink = factory.open(download);
+		sink.write(ByteBuffer.wrap("partial".getBytes()));
+		assertFalse(Files.exists(dir.resolve("report.txt")));
+		sink.write(ByteBuffer.wrap(" content".getBytes()));
+		sink.commit();
+		assertEquals(dir.resolve("report.txt"), download.file);
+		assertArrayEquals("partial content".getBytes(), Files.readAllBytes(download.file));
+		assertEquals(Arrays.asList("report.txt"), list(dir));
+	}
+
+	@Test
+	public void clashingNamesAreNumbered() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Files.write(dir.resolve("file.bin"), new byte[] {1, 2, 3});
+		byte[] content = new byte[3000];
+		new Random(1).nextBytes(content);
+		SimulatedSender sender = new SimulatedSender(Arrays.asList("file.bin", "file.bin"), Arrays.asList(content, content));
+		XYModem xymodem = new XYModem(sender);
+		xymodem.setSinkFactory(new DirectorySinkFactory(dir));
+		xymodem.download();
+		assertEquals(2, sender.getReceivedCount());
+		assertEquals(Arrays.asList("file-1.bin", "file-2.bin", "file.bin"), list(dir));
+		assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(dir.resolve("file.bin")));
+		assertArrayEquals(content, Files.readAllBytes(dir.resolve("file-1.bin")));
+		assertArrayEquals(content, Files.readAllBytes(dir.resolve("file-2.bin")));
+	}
+
+	@Test
+	public void unnamedFileGetsGeneratedName() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		DirectorySinkFactory factory = new DirectorySinkFactory(dir);
+		Download download = new Download(null, false);
+		DownloadSink sink = factory.open(download);
+		sink.write(ByteBuffer.wrap(new byte[] {42}));
+		sink.commit();
+		assertEquals(dir, download.file.getParent());
+		assertEquals(Arrays.asList(download.file.getFileName().toString()), list(dir));
+		assertArrayEquals(new byte[] {42}, Files.readAllBytes(download.file));
+	}
+
+	@Test
+	public void unsupportedLinksFallBackToRename() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		Files.write(dir.resolve("a.txt"), new byte[] {1});
+		AtomicInteger links = new AtomicInteger();
+		DirectorySinkFactory factory = new DirectorySinkFactory(dir) {
+			@Override
+			Path link(Path target, Path staging) throws IOException {
+				links.incrementAndGet();
+				// as FAT reports it
+				throw new FileSystemException(target.toString(), staging.toString(), "Operation not permitted");
+			}
+		};
+		assertEquals(dir.resolve("a-1.txt"), receive(factory, "a.txt", "first"));
+		assertEquals(dir.resolve("b.txt"), receive(factory, "b.txt", "second"));
+		// not tried again once the rename worked
+		assertEquals(1, links.get());
+		assertEquals(Arrays.asList("a-1.txt", "a.txt", "b.txt"), list(dir));
+		assertArrayEquals(new byte[] {1}, Files.readAllBytes(dir.resolve("a.txt")));
+		assertArrayEquals("first".getBytes(), Files.readAllBytes(dir.resolve("a-1.txt")));
+		assertArrayEquals("second".getBytes(), Files.readAllBytes(dir.resolve("b.txt")));
+	}
+
+	@Test
+	public void otherLinkErrorsFailOnlyThatFile() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		AtomicInteger links = new AtomicInteger();
+		DirectorySinkFactory factory = new DirectorySinkFactory(dir) {
+			@Override
+			Path link(Path target, Path staging) throws IOException {
+				if (links.incrementAndGet() == 1) {
+					throw new FileSystemException(target.toString(), staging.toString(), "Too many links");
+				}
+				return super.link(target, staging);
+			}
+		};
+		Download download = new Download("a.txt", false);
+		DownloadSink sink = factory.open(download);
+		sink.write(ByteBuffer.wrap("first".getBytes()));
+		try {
+			sink.commit();
+			fail("Link error not reported.");
+		} catch (FileSystemException e) {
+			assertEquals("Too many links", e.getReason());
+		}
+		sink.abort();
+		assertEquals(Arrays.asList(), list(dir));
+		// links are still used for the next file
+		assertEquals(dir.resolve("b.txt"), receive(factory, "b.txt", "second"));
+		assertEquals(2, links.get());
+		assertEquals(Arrays.asList("b.txt"), list(dir));
+	}
+
+	private static Path receive(DirectorySinkFactory factory, String name, String content) throws Exception {
+		Download download = new Download(name, false);
+		DownloadSink sink = factory.open(download);
+		sink.write(ByteBuffer.wrap(content.getBytes()));
+		sink.commit();
+		return download.file;
+	}
+
+	private static List<String> list(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+}
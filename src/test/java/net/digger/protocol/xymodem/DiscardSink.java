@@ -0,0 +1,56 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sink which throws the content away, for tests and benchmarks of the
+ * protocol alone.
+ * 
+ * @author agent
+ */
+class DiscardSink implements DownloadSink {
+	/**
+	 * Factory giving every file the same DiscardSink.
+	 */
+	public static final SinkFactory FACTORY = new SinkFactory() {
+		private final DiscardSink sink = new DiscardSink();
+
+		@Override
+		public DownloadSink open(Download download) {
+			return sink;
+		}
+	};
+
+	@Override
+	public void write(ByteBuffer data) {
+		data.position(data.limit());
+	}
+
+	@Override
+	public void truncate(long length) {
+	}
+
+	@Override
+	public void commit() {
+	}
+
+	@Override
+	public void abort() {
+	}
+}
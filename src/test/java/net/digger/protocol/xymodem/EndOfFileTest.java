@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks that ending a file in an ACKed batch costs no waiting: the first
+ * EOT is NAKed at once, and a repeated EOT (the sender missed our ACK) is
+ * answered with the handshake for the next file, rather than a timeout.
+ * <p>
+ * The sender waits out the receiver's read timeouts (XYModem), or the
+ * Receiver is run on a simulated clock which only moves on to a deadline
+ * when nothing is waiting, so any wait after the handshake shows up.
+ * 
+ * @author agent
+ */
+public class EndOfFileTest {
+	private static final int FILES = 5;
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void batchEndsFilesWithoutWaiting() {
+		assertDownloadQuick(sender(0));
+	}
+
+	@Test
+	public void repeatedEotGetsHandshake() {
+		assertDownloadQuick(sender(2));
+	}
+
+	@Test
+	public void receiverEndsFilesWithoutWaiting() {
+		assertReceiverQuick(sender(0));
+	}
+
+	@Test
+	public void receiverRepeatedEotGetsHandshake() {
+		assertReceiverQuick(sender(2));
+	}
+
+	private static SimulatedSender sender(int missedAcks) {
+		Random random = new Random(4);
+		List<String> names = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for (int i=0; i<FILES; i++) {
+			byte[] content = new byte[2000];
+			random.nextBytes(content);
+			names.add("file" + i + ".bin");
+			contents.add(content);
+		}
+		SimulatedSender sender = new SimulatedSender(names, contents);
+		sender.setAllowStreaming(false);
+		sender.setMissedEotAcks(missedAcks);
+		return sender;
+	}
+
+	private static void assertDownloadQuick(SimulatedSender sender) {
+		sender.setIdleWait(true);
+		XYModem xymodem = new XYModem(sender);
+		xymodem.setSinkFactory(DiscardSink.FACTORY);
+		long start = System.nanoTime();
+		xymodem.download();
+		long elapsed = (System.nanoTime() - start) / MS;
+		assertTrue(sender.isComplete());
+		assertEquals(FILES, sender.getReceivedCount());
+		// a single wait for silence, or a header timeout, would take 100ms or more
+		assertTrue("Took " + elapsed + "ms", elapsed < 100);
+	}
+
+	private static void assertReceiverQuick(SimulatedSender sender) {
+		Receiver receiver = new Receiver(sender);
+		receiver.setSinkFactory(DiscardSink.FACTORY);
+		byte[] buf = new byte[1024];
+		long now = 0;
+		long first = -1;
+		answer(sender, receiver.start(now));
+		while (!receiver.isDone()) {
+			int count = sender.read(buf, 0, buf.length);
+			if (count > 0) {
+				if (first < 0) {
+					// the handshake waits out 'G', which this sender ignores
+					first = now;
+				}
+				answer(sender, receiver.receive(ByteBuffer.wrap(buf, 0, count), now));
+			} else {
+				now = receiver.getDeadline();
+				answer(sender, receiver.tick(now));
+			}
+		}
+		assertTrue(sender.isComplete());
+		assertEquals(FILES, sender.getReceivedCount());
+		// the clock only moves when the Receiver waits for a deadline
+		assertEquals("Waited after the handshake", first, now);
+	}
+
+	private static void answer(SimulatedSender sender, ByteBuffer output) {
+		while (output.hasRemaining()) {
+			sender.accept(output.get() & 0xFF);
+		}
+	}
+}
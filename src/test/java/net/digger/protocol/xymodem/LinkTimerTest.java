@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks that the measured timeouts never undercut what the link can
+ * actually deliver.
+ * 
+ * @author agent
+ */
+public class LinkTimerTest {
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void headerTimeoutNeedsSeveralSamples() {
+		LinkTimer timer = new LinkTimer();
+		for (int i=1; i<4; i++) {
+			timer.sent(i * 1000 * MS);
+			timer.headerStarted((i * 1000 * MS) + MS);
+			assertEquals(10000, timer.headerTimeout(false));
+		}
+		timer.sent(4000 * MS);
+		timer.headerStarted(4001 * MS);
+		assertEquals(1000, timer.headerTimeout(false));
+	}
+
+	@Test
+	public void headerTimeoutNotShortenedWhileStreaming() {
+		LinkTimer timer = new LinkTimer();
+		for (int i=1; i<10; i++) {
+			timer.sent(i * 1000 * MS);
+			timer.headerStarted((i * 1000 * MS) + MS);
+		}
+		assertEquals(10000, timer.headerTimeout(true));
+	}
+
+	@Test
+	public void blockDeadlineNeedsSeveralSamples() {
+		LinkTimer timer = new LinkTimer();
+		for (int i=0; i<3; i++) {
+			timer.packetReceived(1024, 100 * MS);
+			assertEquals(LinkTimer.NO_DEADLINE, timer.deadline(1024, 0));
+		}
+		timer.packetReceived(1024, 100 * MS);
+		assertTrue(timer.deadline(1024, 0) != LinkTimer.NO_DEADLINE);
+	}
+
+	@Test
+	public void blockDeadlineAllowsForLineRate() {
+		LinkTimer timer = new LinkTimer();
+		for (int i=0; i<20; i++) {
+			// as if buffered before it was read
+			timer.packetReceived(1024, 1000);
+		}
+		// 1024 bytes at 115200 bps take about 89ms
+		assertTrue(timer.deadline(1024, 0) >= (200 + 89) * MS);
+	}
+
+	/**
+	 * YModem-G with a fast handshake, then a sender which pauses for 1.5
+	 * seconds between blocks, within the spec's 10 seconds.
+	 */
+	@Test
+	public void streamingSurvivesPauseAfterFastHandshake() {
+		byte[] content = new byte[10 * 1024];
+		new Random(4).nextBytes(content);
+		SimulatedSender sender = new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content));
+		Receiver receiver = new Receiver(sender);
+		receiver.setSinkFactory(DiscardSink.FACTORY);
+		// block 0, then block 1, before the pause
+		int pauseAt = 133 + 1029;
+		byte[] buf = new byte[128];
+		long now = 0;
+		int delivered = 0;
+		answer(sender, receiver.start(now));
+		while (!receiver.isDone()) {
+			if (sender.available() == 0) {
+				now = receiver.getDeadline();
+				answer(sender, receiver.tick(now));
+				continue;
+			}
+			long next = now + ((delivered == pauseAt) ? 1500 * MS : MS);
+			while (!receiver.isDone() && ((receiver.getDeadline() - next) <= 0)) {
+				now = receiver.getDeadline();
+				answer(sender, receiver.tick(now));
+			}
+			if (receiver.isDone()) {
+				break;
+			}
+			now = next;
+			int count = sender.read(buf, 0, (delivered < pauseAt) ? Math.min(buf.length, pauseAt - delivered) : buf.length);
+			delivered += count;
+			answer(sender, receiver.receive(ByteBuffer.wrap(buf, 0, count), now));
+		}
+		assertTrue(receiver.getResult().join().isComplete());
+		assertEquals(1, sender.getReceivedCount());
+	}
+
+	private static void answer(SimulatedSender sender, ByteBuffer output) {
+		while (output.hasRemaining()) {
+			sender.accept(output.get() & 0xFF);
+		}
+	}
+}
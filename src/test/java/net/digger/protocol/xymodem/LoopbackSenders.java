@@ -0,0 +1,250 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs SimulatedSenders over loopback TCP connections, from one Selector
+ * thread, for tests and benchmarks of ReceiveServer.
+ * <p>
+ * Senders are silent until answer() is called, discarding whatever the
+ * receiver sends before then, so the sessions can be held idle in their
+ * handshake.  Run as a program, it sends one file per connection from
+ * a separate JVM, so that the receiving JVM holds only the receivers:
+ * <pre>
+ * LoopbackSenders &lt;port&gt; &lt;connections&gt; &lt;file size&gt;
+ * </pre>
+ * It prints "connected" once every connection is made, answers when
+ * given a line on standard input, and prints "finished &lt;complete&gt;"
+ * and exits once the receiver has closed every connection.
+ * 
+ * @author agent
+ */
+class LoopbackSenders implements Closeable {
+	private static final class Connection {
+		public final SocketChannel channel;
+		public final SimulatedSender sender;
+		public ByteBuffer pending = null;	// output not yet accepted by the channel
+
+		public Connection(SocketChannel channel, SimulatedSender sender) {
+			this.channel = channel;
+			this.sender = sender;
+		}
+	}
+
+	private final Selector selector;
+	private final List<Connection> connections = new ArrayList<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+	private final byte[] output = new byte[8192];
+	private volatile boolean answering = false;
+	private int finished = 0;
+
+	/**
+	 * Connect a sender to the given address.
+	 * 
+	 * @param address Address the receiver is listening on.
+	 * @param senders One sender per connection, connected in order.
+	 * @throws IOException If a connection could not be made.
+	 */
+	public LoopbackSenders(SocketAddress address, List<SimulatedSender> senders) throws IOException {
+		selector = Selector.open();
+		try {
+			for (SimulatedSender sender : senders) {
+				SocketChannel channel = SocketChannel.open(address);
+				Connection connection = new Connection(channel, sender);
+				connections.add(connection);
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, connection);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Start answering the receiver.  May be called from any thread.
+	 */
+	public void answer() {
+		answering = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Number of connections closed by the receiver.
+	 * 
+	 * @return Connection count.
+	 */
+	public int getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Number of senders whose batch was completely sent and acknowledged.
+	 * 
+	 * @return Sender count.
+	 */
+	public int getComplete() {
+		int count = 0;
+		for (Connection connection : connections) {
+			if (connection.sender.isComplete()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Send to the receiver until it has closed every connection.
+	 * 
+	 * @param timeout Most milliseconds to run for.
+	 * @return True if every connection was closed, false if timed out.
+	 * @throws IOException If the Selector failed.
+	 */
+	public boolean run(long timeout) throws IOException {
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (finished < connections.size()) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			selector.select(Math.min(remaining, 100));
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Connection connection = (Connection)key.attachment();
+				try {
+					if (key.isWritable()) {
+						flush(connection, key);
+					}
+					if (key.isValid() && key.isReadable()) {
+						read(connection, key);
+					}
+				} catch (IOException e) {
+					finish(key);
+				}
+			}
+		}
+		return true;
+	}
+
+	private void read(Connection connection, SelectionKey key) throws IOException {
+		readBuffer.clear();
+		int count = connection.channel.read(readBuffer);
+		if (count < 0) {
+			finish(key);
+			return;
+		}
+		if (!answering) {
+			return;
+		}
+		for (int i=0; i<count; i++) {
+			connection.sender.accept(readBuffer.get(i) & 0xFF);
+		}
+		send(connection, key);
+	}
+
+	private void flush(Connection connection, SelectionKey key) throws IOException {
+		connection.channel.write(connection.pending);
+		if (connection.pending.hasRemaining()) {
+			return;
+		}
+		connection.pending = null;
+		key.interestOps(SelectionKey.OP_READ);
+		send(connection, key);
+	}
+
+	/**
+	 * Write the sender's output, until it has no more or the channel is full.
+	 */
+	private void send(Connection connection, SelectionKey key) throws IOException {
+		int n;
+		while ((connection.pending == null) && ((n = connection.sender.read(output, 0, output.length)) > 0)) {
+			ByteBuffer buf = ByteBuffer.wrap(output, 0, n);
+			connection.channel.write(buf);
+			if (buf.hasRemaining()) {
+				connection.pending = ByteBuffer.allocate(buf.remaining());
+				connection.pending.put(buf);
+				connection.pending.flip();
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void finish(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// ignore
+		}
+		finished++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Connection connection : connections) {
+			connection.channel.close();
+		}
+		selector.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		int count = Integer.parseInt(args[1]);
+		byte[] content = new byte[Integer.parseInt(args[2])];
+		new Random(count).nextBytes(content);
+		List<SimulatedSender> senders = new ArrayList<>(count);
+		for (int i=0; i<count; i++) {
+			senders.add(new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content)));
+		}
+		try (LoopbackSenders loopback = new LoopbackSenders(new InetSocketAddress("127.0.0.1", port), senders)) {
+			System.out.println("connected");
+			System.out.flush();
+			Thread go = new Thread(() -> {
+				try {
+					new BufferedReader(new InputStreamReader(System.in)).readLine();
+				} catch (IOException e) {
+					// answer anyway
+				}
+				loopback.answer();
+			});
+			go.setDaemon(true);
+			go.start();
+			loopback.run(TimeUnit.MINUTES.toMillis(5));
+			System.out.println("finished " + loopback.getComplete());
+			System.out.flush();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sender which turns to sending noise, for tests and benchmarks of a line
+ * which never clears.
+ * <p>
+ * A SimulatedSender can be given to send a valid start to the transfer;
+ * once it has sent the given number of bytes, only noise is sent.  Noise
+ * is either continuous (every read returns a full buffer of random bytes
+ * at once), or a trickle of one random byte per interval.  Noise never
+ * holds a byte which could start a block or end the transfer (SOH, STX,
+ * EOT or CAN), so the receiver can only give up on it by its purge limits.
+ * 
+ * @author agent
+ */
+class NoisySender implements IOHandler {
+	private final SimulatedSender sender;
+	private final int prefix;
+	private final int interval;
+	private final Random random = new Random(9);
+	private int sent = 0;
+	private long noiseStart = 0;
+	private final List<String> messages = new ArrayList<>();
+
+	/**
+	 * Sender of noise.
+	 * 
+	 * @param sender Sender of the valid start of the transfer, or null to send only noise.
+	 * @param prefix Number of bytes from sender before the noise starts.
+	 * @param interval Milliseconds between noise bytes, or 0 for continuous noise.
+	 */
+	public NoisySender(SimulatedSender sender, int prefix, int interval) {
+		this.sender = sender;
+		this.prefix = (sender == null) ? 0 : prefix;
+		this.interval = interval;
+	}
+
+	/**
+	 * Time at which the noise started.
+	 * 
+	 * @return System.nanoTime() when the first noise byte was read, or 0 if none yet.
+	 */
+	public long getNoiseStart() {
+		return noiseStart;
+	}
+
+	/**
+	 * Random byte, other than one which has a meaning to the receiver.
+	 * 
+	 * @param random Source of random numbers.
+	 * @return Noise byte.
+	 */
+	static byte noise(Random random) {
+		while (true) {
+			int b = random.nextInt(256);
+			if ((b != XYModem.SOH) && (b != XYModem.STX) && (b != XYModem.EOT) && (b != XYModem.CAN)) {
+				return (byte)b;
+			}
+		}
+	}
+
+	/**
+	 * Messages passed to log(), which include the reason for a cancel.
+	 * 
+	 * @return Messages logged so far.
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	@Override
+	public Byte read(int msTimeout) {
+		int b = readByte(msTimeout);
+		return (b < 0) ? null : (byte)b;
+	}
+
+	@Override
+	public int readByte(int msTimeout) {
+		byte[] b = new byte[1];
+		return (read(b, 0, 1, msTimeout) == 0) ? -1 : (b[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] dst, int off, int len, int msTimeout) {
+		if (sent < prefix) {
+			int count = sender.read(dst, off, Math.min(len, prefix - sent));
+			sent += count;
+			return count;
+		}
+		if (interval == 0) {
+			started();
+			for (int i=off; i<off+len; i++) {
+				dst[i] = noise(random);
+			}
+			return len;
+		}
+		if (msTimeout < interval) {
+			sleep(msTimeout);
+			return 0;
+		}
+		sleep(interval);
+		started();
+		dst[off] = noise(random);
+		return 1;
+	}
+
+	@Override
+	public void write(char ch) {
+		if (sender != null) {
+			sender.accept(ch & 0xFF);
+		}
+	}
+
+	@Override
+	public void log(String message) {
+		messages.add(message);
+	}
+
+	@Override
+	public void progress(long bytes, long total) {
+	}
+
+	@Override
+	public void received(Download download) {
+	}
+
+	private void started() {
+		if (noiseStart == 0) {
+			noiseStart = System.nanoTime();
+		}
+	}
+
+	private static void sleep(int ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
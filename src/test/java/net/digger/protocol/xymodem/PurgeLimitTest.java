@@ -0,0 +1,177 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.digger.protocol.xymodem.XYModem.ResyncOption;
+
+import org.junit.Test;
+
+/**
+ * Checks the worst-case time to abort a download when the line never
+ * clears, with continuous noise and with a trickle of noise which never
+ * leaves a gap long enough to count as clear.
+ * <p>
+ * A download can wait for the line to clear twice: after the error (or
+ * before the handshake), then while cancelling.  Each wait must end at
+ * the purge time limit, so the download must be over within twice the
+ * limit.  XYModem runs in real time, so some slack is allowed for
+ * scheduling; Receiver runs on a simulated clock, so is held to the
+ * exact bound.
+ * 
+ * @author agent
+ */
+public class PurgeLimitTest {
+	private static final int LIMIT = 1000;
+	private static final long SLACK = 250;
+	// just under the gaps which mean the line is clear
+	private static final int PURGE_TRICKLE = 990;
+	private static final int SCAN_TRICKLE = 240;
+	// valid start of the transfer: block 0, then block 1, before the noise
+	private static final int PREFIX = 133 + 1029;
+
+	@Test
+	public void noiseBeforeHandshake() {
+		assertDownloadBounded(null, ResyncOption.PURGE, 0, "Line did not clear before handshake.");
+		assertDownloadBounded(null, ResyncOption.PURGE, PURGE_TRICKLE, "Line did not clear before handshake.");
+	}
+
+	@Test
+	public void noiseAfterBadBlock() {
+		assertDownloadBounded(sender(), ResyncOption.PURGE, 0, "Line did not clear after error");
+		assertDownloadBounded(sender(), ResyncOption.PURGE, PURGE_TRICKLE, "Line did not clear after error");
+	}
+
+	@Test
+	public void noiseWhileScanning() {
+		assertDownloadBounded(sender(), ResyncOption.SCAN, 0, "No block header found after error.");
+		assertDownloadBounded(sender(), ResyncOption.SCAN, SCAN_TRICKLE, "No block header found after error.");
+	}
+
+	@Test
+	public void receiverNoiseBeforeHandshake() {
+		assertReceiverBounded(null, ResyncOption.PURGE, 0, "Line did not clear before handshake.");
+		assertReceiverBounded(null, ResyncOption.PURGE, PURGE_TRICKLE, "Line did not clear before handshake.");
+	}
+
+	@Test
+	public void receiverNoiseAfterBadBlock() {
+		assertReceiverBounded(sender(), ResyncOption.PURGE, 0, "Line did not clear after error");
+		assertReceiverBounded(sender(), ResyncOption.PURGE, PURGE_TRICKLE, "Line did not clear after error");
+	}
+
+	@Test
+	public void receiverNoiseWhileScanning() {
+		assertReceiverBounded(sender(), ResyncOption.SCAN, 0, "No block header found after error.");
+		assertReceiverBounded(sender(), ResyncOption.SCAN, SCAN_TRICKLE, "No block header found after error.");
+	}
+
+	private static SimulatedSender sender() {
+		byte[] content = new byte[10 * 1024];
+		new Random(2).nextBytes(content);
+		SimulatedSender sender = new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content));
+		sender.setAllowStreaming(false);
+		return sender;
+	}
+
+	private static void assertDownloadBounded(SimulatedSender sender, ResyncOption option, int interval, String reason) {
+		NoisySender line = new NoisySender(sender, PREFIX, interval);
+		XYModem xymodem = new XYModem(line);
+		xymodem.setSinkFactory(DiscardSink.FACTORY);
+		xymodem.setResyncOption(option);
+		xymodem.setPurgeLimits(LIMIT, Long.MAX_VALUE);
+		xymodem.download();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - line.getNoiseStart());
+		assertCancelled(line.getMessages().toString(), reason);
+		assertTrue("Took " + elapsed + "ms to abort", elapsed <= (2 * LIMIT) + SLACK);
+	}
+
+	private static void assertReceiverBounded(SimulatedSender sender, ResyncOption option, int interval, String reason) {
+		NoisySender line = new NoisySender(null, 0, interval);
+		Receiver receiver = new Receiver(line);
+		receiver.setSinkFactory(DiscardSink.FACTORY);
+		receiver.setResyncOption(option);
+		receiver.setPurgeLimits(LIMIT, Long.MAX_VALUE);
+		Random random = new Random(3);
+		byte[] buf = new byte[1024];
+		long ms = TimeUnit.MILLISECONDS.toNanos(1);
+		long now = 0;
+		long noiseStart = (sender == null) ? interval * ms : -1;
+		long nextNoise = interval * ms;
+		int sent = 0;
+		answer(sender, receiver.start(now));
+		while (!receiver.isDone()) {
+			if (noiseStart < 0) {
+				// valid start of the transfer, answered at once
+				int count = (sender.available() == 0) ? 0 : sender.read(buf, 0, Math.min(buf.length, PREFIX - sent));
+				if (count > 0) {
+					sent += count;
+					answer(sender, receiver.receive(ByteBuffer.wrap(buf, 0, count), now));
+					if (sent == PREFIX) {
+						// first noise byte at once if continuous, else after one interval
+						nextNoise = now + (interval * ms);
+						noiseStart = nextNoise;
+					}
+				} else {
+					now = receiver.getDeadline();
+					answer(sender, receiver.tick(now));
+				}
+				continue;
+			}
+			if (interval == 0) {
+				// continuous: a buffer of noise every millisecond
+				for (int i=0; i<buf.length; i++) {
+					buf[i] = NoisySender.noise(random);
+				}
+				receiver.receive(ByteBuffer.wrap(buf), now);
+				if (!receiver.isDone()) {
+					now += ms;
+				}
+			} else if ((receiver.getDeadline() - nextNoise) <= 0) {
+				now = receiver.getDeadline();
+				receiver.tick(now);
+			} else {
+				now = nextNoise;
+				buf[0] = NoisySender.noise(random);
+				receiver.receive(ByteBuffer.wrap(buf, 0, 1), now);
+				nextNoise += interval * ms;
+			}
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(now - noiseStart);
+		assertCancelled(line.getMessages().toString(), reason);
+		assertTrue("Took " + elapsed + "ms to abort", elapsed <= 2 * LIMIT);
+		// timed by the simulated clock, which started at 0
+		assertEquals(now, receiver.getResult().join().elapsed.toNanos());
+	}
+
+	private static void answer(SimulatedSender sender, ByteBuffer output) {
+		while ((sender != null) && output.hasRemaining()) {
+			sender.accept(output.get() & 0xFF);
+		}
+	}
+
+	private static void assertCancelled(String messages, String reason) {
+		assertTrue("Cancelled for: " + messages, messages.contains(reason));
+	}
+}
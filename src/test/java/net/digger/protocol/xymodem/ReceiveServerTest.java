@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Checks that a failing session closes only itself, leaving the event
+ * loop running the others.
+ * 
+ * @author agent
+ */
+public class ReceiveServerTest {
+	private static final long TIMEOUT = 30000;
+
+	@Test
+	public void runtimeExceptionClosesOnlyItsSession() throws IOException {
+		AtomicInteger connections = new AtomicInteger();
+		try (ReceiveServer server = new ReceiveServer(1, channel -> {
+			switch (connections.getAndIncrement()) {
+				case 0:
+					throw new IllegalStateException("from factory");
+				case 1:
+					return receiver(new Listener("Downloading"));
+				case 2:
+					return receiver(new Listener("Download complete"));
+				default:
+					return receiver(new Listener(null));
+			}
+		})) {
+			server.start();
+			SocketAddress address = server.bind(new InetSocketAddress("127.0.0.1", 0));
+			List<SimulatedSender> senders = senders(4);
+			try (LoopbackSenders loopback = new LoopbackSenders(address, senders)) {
+				loopback.answer();
+				assertTrue("Receiver left a connection open", loopback.run(TIMEOUT));
+			}
+			assertFalse(senders.get(0).isComplete());
+			assertFalse(senders.get(1).isComplete());
+			assertFalse(senders.get(2).isComplete());
+			assertTrue(senders.get(3).isComplete());
+
+			// and the loop still takes new sessions
+			senders = senders(1);
+			try (LoopbackSenders loopback = new LoopbackSenders(address, senders)) {
+				loopback.answer();
+				assertTrue("Receiver left a connection open", loopback.run(TIMEOUT));
+			}
+			assertTrue(senders.get(0).isComplete());
+			ReceiveServer.LoopStats stats = server.getLoopStats().get(0);
+			assertEquals(0, stats.getSessions());
+			// the factory's failure never became a session
+			assertEquals(4, stats.getCompleted());
+		}
+	}
+
+	private static Receiver receiver(DownloadListener listener) {
+		Receiver receiver = new Receiver(listener);
+		receiver.setSinkFactory(DiscardSink.FACTORY);
+		return receiver;
+	}
+
+	private static List<SimulatedSender> senders(int count) {
+		byte[] content = new byte[5000];
+		new Random(5).nextBytes(content);
+		List<SimulatedSender> senders = new ArrayList<>();
+		for (int i=0; i<count; i++) {
+			senders.add(new SimulatedSender(Arrays.asList("file.bin"), Arrays.asList(content)));
+		}
+		return senders;
+	}
+
+	/**
+	 * Listener which throws when given a log message starting with the given text.
+	 */
+	private static class Listener implements DownloadListener {
+		private final String failOn;
+
+		public Listener(String failOn) {
+			this.failOn = failOn;
+		}
+
+		@Override
+		public void log(String message) {
+			if ((failOn != null) && message.startsWith(failOn)) {
+				throw new IllegalStateException("from listener");
+			}
+		}
+
+		@Override
+		public void progress(long bytes, long total) {
+		}
+
+		@Override
+		public void received(Download download) {
+		}
+	}
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sender for tests and benchmarks, which answers the receiver as soon as
+ * it writes, so the whole transfer runs on the receiving thread without
+ * any real time passing.
+ * <p>
+ * Sends XModem (CRC or checksum, 128 or 1K blocks) or YModem batches
+ * (YModem-G if the receiver asks for it).  Every block is built up front,
+ * so sending allocates nothing.  It can be used as the IOHandler of an
+ * XYModem, or fed the receiver's output with accept() and read from with
+ * read() for other engines.
+ * 
+ * @author agent
+ */
+class SimulatedSender implements IOHandler {
+	private enum State {
+		HANDSHAKE, BLOCK0, DATA_HANDSHAKE, DATA, EOT, DONE
+	}
+
+	private static final byte[] EOT_FRAME = new byte[] {(byte)XYModem.EOT};
+
+	private final boolean batch;
+	private final int blockSize;
+	private final String[] names;
+	private final byte[][] contents;
+	private final byte[][] crcFrames;
+	private byte[][] sumFrames = null;
+	private final byte[][] crcBlock0;
+	private final byte[] endBlock0;
+	// output segments waiting to be read by the receiver
+	private final byte[][] segment = new byte[4][];
+	private final int[] segmentPos = new int[4];
+	private final int[] segmentEnd = new int[4];
+	private int head = 0;
+	private int segments = 0;
+	private boolean allowStreaming = true;
+	private boolean idleWait = false;
+	private int missedEotAcks = 0;
+	private int missed;
+	private boolean started;
+	private State state;
+	private boolean crc;
+	private boolean streaming;
+	private int fileIndex;
+	private int blockIndex;
+	private int received;
+	private boolean cancelled;
+
+	/**
+	 * Sender for a YModem batch, with 1K blocks.
+	 * 
+	 * @param names Name of each file.
+	 * @param contents Content of each file.
+	 */
+	public SimulatedSender(List<String> names, List<byte[]> contents) {
+		this(true, 1024, names, contents);
+	}
+
+	/**
+	 * Sender for a single XModem file.
+	 * 
+	 * @param blockSize Size of the data blocks, 128 or 1024.
+	 * @param content Content of the file.
+	 */
+	public SimulatedSender(int blockSize, byte[] content) {
+		this(false, blockSize, Arrays.asList((String)null), Arrays.asList(content));
+	}
+
+	private SimulatedSender(boolean batch, int blockSize, List<String> names, List<byte[]> contents) {
+		this.batch = batch;
+		this.blockSize = blockSize;
+		this.names = names.toArray(new String[0]);
+		this.contents = contents.toArray(new byte[0][]);
+		crcFrames = new byte[this.contents.length][];
+		crcBlock0 = new byte[this.contents.length][];
+		for (int i=0; i<this.contents.length; i++) {
+			crcFrames[i] = frames(this.contents[i], true);
+			if (batch) {
+				byte[] header = (this.names[i] + "\0" + this.contents[i].length).getBytes(StandardCharsets.US_ASCII);
+				crcBlock0[i] = frame(0, header, 0, header.length, 128, true);
+			}
+		}
+		endBlock0 = frame(0, new byte[0], 0, 0, 128, true);
+		reset();
+	}
+
+	/**
+	 * Start again from the beginning, to repeat the same transfer.
+	 */
+	public void reset() {
+		state = State.HANDSHAKE;
+		head = 0;
+		segments = 0;
+		fileIndex = 0;
+		blockIndex = 0;
+		received = 0;
+		cancelled = false;
+		started = false;
+		missed = 0;
+	}
+
+	/**
+	 * Set whether to stream (YModem-G) if the receiver asks for it.
+	 * Otherwise 'G' is ignored, so the receiver falls back to 'C'.
+	 * 
+	 * @param allowStreaming True to allow YModem-G (default).
+	 */
+	public void setAllowStreaming(boolean allowStreaming) {
+		this.allowStreaming = allowStreaming;
+	}
+
+	/**
+	 * Set whether a read with nothing waiting waits out its timeout, as on a
+	 * real line, rather than returning at once.  This only starts once the
+	 * sender has sent something, so the purge and handshake at the start of
+	 * the session still return at once.
+	 * 
+	 * @param idleWait True to wait out timeouts.
+	 */
+	public void setIdleWait(boolean idleWait) {
+		this.idleWait = idleWait;
+	}
+
+	/**
+	 * Set how many ACKs of an EOT are lost on the line.  The sender then
+	 * repeats the EOT at once, as if it had timed out waiting for the ACK.
+	 * 
+	 * @param missedEotAcks Number of EOT ACKs to ignore, over the whole transfer.
+	 */
+	public void setMissedEotAcks(int missedEotAcks) {
+		this.missedEotAcks = missedEotAcks;
+	}
+
+	/**
+	 * Number of bytes in each file's data blocks, including padding.
+	 * 
+	 * @param file Index of the file.
+	 * @return Byte count.
+	 */
+	public int getPaddedLength(int file) {
+		return blockCount(contents[file].length) * blockSize;
+	}
+
+	/**
+	 * Number of files passed to received().
+	 * 
+	 * @return File count.
+	 */
+	public int getReceivedCount() {
+		return received;
+	}
+
+	/**
+	 * Indicates whether the whole batch has been sent and acknowledged.
+	 * 
+	 * @return True if complete.
+	 */
+	public boolean isComplete() {
+		return state == State.DONE && !cancelled;
+	}
+
+	/**
+	 * Indicates whether the receiver cancelled the transfer.
+	 * 
+	 * @return True if cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Number of bytes waiting to be read by the receiver.
+	 * 
+	 * @return Byte count.
+	 */
+	public int available() {
+		int count = 0;
+		for (int i=0; i<segments; i++) {
+			int s = (head + i) % segment.length;
+			count += segmentEnd[s] - segmentPos[s];
+		}
+		return count;
+	}
+
+	/**
+	 * Take a byte sent by the receiver, and queue the answer to it.
+	 * 
+	 * @param b Byte from the receiver.
+	 */
+	public void accept(int b) {
+		if (b == XYModem.CAN) {
+			cancelled = true;
+			state = State.DONE;
+			return;
+		}
+		switch (state) {
+			case HANDSHAKE:
+				if (!handshake(b)) {
+					break;
+				}
+				if (!batch) {
+					startData();
+				} else if (fileIndex < contents.length) {
+					queue(crcBlock0[fileIndex], 0, crcBlock0[fileIndex].length);
+					state = State.BLOCK0;
+				} else {
+					queue(endBlock0, 0, endBlock0.length);
+					state = State.DONE;
+				}
+				break;
+			case BLOCK0:
+				if (b == XYModem.ACK) {
+					state = State.DATA_HANDSHAKE;
+				} else if (b == XYModem.NAK) {
+					queue(crcBlock0[fileIndex], 0, crcBlock0[fileIndex].length);
+				} else if (handshake(b)) {
+					// YModem-G doesn't ACK block 0
+					startData();
+				}
+				break;
+			case DATA_HANDSHAKE:
+				if (handshake(b)) {
+					startData();
+				}
+				break;
+			case DATA:
+				if (b == XYModem.ACK) {
+					blockIndex++;
+					sendBlock();
+				} else if (b == XYModem.NAK) {
+					sendBlock();
+				}
+				break;
+			case EOT:
+				if (b == XYModem.NAK) {
+					queue(EOT_FRAME, 0, 1);
+				} else if ((b == XYModem.ACK) && (missed < missedEotAcks)) {
+					missed++;
+					queue(EOT_FRAME, 0, 1);
+				} else if (b == XYModem.ACK) {
+					fileIndex++;
+					state = batch ? State.HANDSHAKE : State.DONE;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Read bytes sent to the receiver.
+	 * 
+	 * @param dst Array to store the bytes in.
+	 * @param off Offset in dst of the first byte to store.
+	 * @param len Maximum number of bytes to read.
+	 * @return Number of bytes read, 0 if none are waiting.
+	 */
+	public int read(byte[] dst, int off, int len) {
+		int count = 0;
+		while ((count < len) && (segments > 0)) {
+			int n = Math.min(len - count, segmentEnd[head] - segmentPos[head]);
+			System.arraycopy(segment[head], segmentPos[head], dst, off + count, n);
+			segmentPos[head] += n;
+			count += n;
+			if (segmentPos[head] == segmentEnd[head]) {
+				segment[head] = null;
+				head = (head + 1) % segment.length;
+				segments--;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public Byte read(int msTimeout) {
+		int b = readByte(msTimeout);
+		return (b < 0) ? null : (byte)b;
+	}
+
+	@Override
+	public int readByte(int msTimeout) {
+		if (segments == 0) {
+			idle(msTimeout);
+			return -1;
+		}
+		int b = segment[head][segmentPos[head]] & 0xFF;
+		if (++segmentPos[head] == segmentEnd[head]) {
+			segment[head] = null;
+			head = (head + 1) % segment.length;
+			segments--;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] dst, int off, int len, int msTimeout) {
+		if (segments == 0) {
+			idle(msTimeout);
+		}
+		return read(dst, off, len);
+	}
+
+	@Override
+	public void write(char ch) {
+		accept(ch & 0xFF);
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		for (int i=off; i<off+len; i++) {
+			accept(buf[i] & 0xFF);
+		}
+	}
+
+	@Override
+	public void log(String message) {
+	}
+
+	@Override
+	public void progress(long bytes, long total) {
+	}
+
+	@Override
+	public void received(Download download) {
+		received++;
+	}
+
+	private void idle(int msTimeout) {
+		if (idleWait && started) {
+			try {
+				Thread.sleep(msTimeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean handshake(int b) {
+		if ((b == 'C') || ((b == 'G') && batch && allowStreaming)) {
+			crc = true;
+			streaming = (b == 'G');
+			return true;
+		}
+		if (b == XYModem.NAK) {
+			crc = false;
+			streaming = false;
+			return true;
+		}
+		return false;
+	}
+
+	private void startData() {
+		blockIndex = 0;
+		if (streaming) {
+			byte[] frames = frames(fileIndex);
+			queue(frames, 0, frames.length);
+			queue(EOT_FRAME, 0, 1);
+			state = State.EOT;
+		} else {
+			state = State.DATA;
+			sendBlock();
+		}
+	}
+
+	private void sendBlock() {
+		byte[] frames = frames(fileIndex);
+		int frameSize = frameSize(crc);
+		int off = blockIndex * frameSize;
+		if (off < frames.length) {
+			queue(frames, off, frameSize);
+		} else {
+			queue(EOT_FRAME, 0, 1);
+			state = State.EOT;
+		}
+	}
+
+	private byte[] frames(int file) {
+		if (crc) {
+			return crcFrames[file];
+		}
+		if (sumFrames == null) {
+			sumFrames = new byte[contents.length][];
+			for (int i=0; i<contents.length; i++) {
+				sumFrames[i] = frames(contents[i], false);
+			}
+		}
+		return sumFrames[file];
+	}
+
+	private void queue(byte[] data, int off, int len) {
+		if (segments == segment.length) {
+			throw new IllegalStateException("Receiver has not read the earlier output.");
+		}
+		int s = (head + segments) % segment.length;
+		started = true;
+		segment[s] = data;
+		segmentPos[s] = off;
+		segmentEnd[s] = off + len;
+		segments++;
+	}
+
+	private int blockCount(int length) {
+		return Math.max(1, (length + blockSize - 1) / blockSize);
+	}
+
+	private int frameSize(boolean crc) {
+		return 3 + blockSize + (crc ? 2 : 1);
+	}
+
+	private byte[] frames(byte[] content, boolean crc) {
+		int count = blockCount(content.length);
+		int frameSize = frameSize(crc);
+		byte[] frames = new byte[count * frameSize];
+		for (int i=0; i<count; i++) {
+			int off = i * blockSize;
+			byte[] frame = frame(i + 1, content, off, Math.min(blockSize, content.length - off), blockSize, crc);
+			System.arraycopy(frame, 0, frames, i * frameSize, frameSize);
+		}
+		return frames;
+	}
+
+	private static byte[] frame(int blockNum, byte[] data, int off, int len, int size, boolean crc) {
+		byte[] frame = new byte[3 + size + (crc ? 2 : 1)];
+		frame[0] = (byte)((size == 1024) ? XYModem.STX : XYModem.SOH);
+		frame[1] = (byte)blockNum;
+		frame[2] = (byte)~blockNum;
+		System.arraycopy(data, off, frame, 3, Math.max(0, len));
+		if (blockNum != 0) {
+			Arrays.fill(frame, 3 + Math.max(0, len), 3 + size, (byte)XYModem.EOF);
+		}
+		if (crc) {
+			int value = CRC16.calculate(frame, 3, size);
+			frame[3 + size] = (byte)(value >> 8);
+			frame[4 + size] = (byte)value;
+		} else {
+			frame[3 + size] = (byte)Checksum8.calculate(frame, 3, size);
+		}
+		return frame;
+	}
+}
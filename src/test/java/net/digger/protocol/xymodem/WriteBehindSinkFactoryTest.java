@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2026  agent
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.digger.protocol.xymodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Checks that the storage queue gives back what was queued when storage
+ * fails, or can't be started.
+ * 
+ * @author agent
+ */
+public class WriteBehindSinkFactoryTest {
+	@Test
+	public void skippedWritesReleaseQueuedBytes() throws Exception {
+		CountDownLatch stalled = new CountDownLatch(1);
+		DownloadSink failing = new DownloadSink() {
+			@Override
+			public void write(ByteBuffer data) throws IOException {
+				try {
+					stalled.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("Disk full.");
+			}
+
+			@Override
+			public void truncate(long length) {
+			}
+
+			@Override
+			public void commit() {
+			}
+
+			@Override
+			public void abort() {
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			WriteBehindSinkFactory factory = new WriteBehindSinkFactory(download -> failing, executor, 1 << 20);
+			DownloadSink sink = factory.open(new Download(null, false));
+			for (int i=0; i<10; i++) {
+				sink.write(ByteBuffer.allocate(1024));
+			}
+			assertEquals(10 * 1024, factory.getQueuedBytes());
+			stalled.countDown();
+			try {
+				sink.commit();
+				fail("Commit succeeded after a failed write.");
+			} catch (IOException e) {
+				assertEquals("Disk full.", e.getMessage());
+			}
+			assertEquals(0, factory.getQueuedBytes());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void writeAfterCloseThrowsIOException() throws Exception {
+		WriteBehindSinkFactory factory = new WriteBehindSinkFactory(DiscardSink.FACTORY);
+		DownloadSink sink = factory.open(new Download(null, false));
+		factory.close();
+		try {
+			sink.write(ByteBuffer.allocate(1024));
+			fail("Write queued after close.");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, factory.getQueuedBytes());
+		assertEquals(0, factory.getQueueDepth());
+		// abort still reaches the wrapped sink
+		sink.abort();
+		assertEquals(0, factory.getQueueDepth());
+	}
+}